@@ -34,12 +34,14 @@ import java.util.function.BiFunction;
 import java.util.function.Function;
 
 public class AlphabetSpeedrunConfigData {
-    final static int CURRENT_SCHEMA = 10;
+    final static int CURRENT_SCHEMA = 12;
     private boolean itemsOnlyAvailableWhenRunning = false;
     private boolean stopOnQuit = false;
     private boolean timerPausesWhenVacant = true;
     private int defaultInvitationCooldown = 30;
     private boolean enableLegacyCommands = false;
+    private BroadcastType collectionBroadcast = BroadcastType.ALL;
+    private BroadcastType completionBroadcast = BroadcastType.ALL;
 
     // default: !empty
     private ItemRunDifficultyRuleFactory difficultiesWithOp = new ItemRunDifficultyRuleFactory.Impl(
@@ -66,7 +68,8 @@ public class AlphabetSpeedrunConfigData {
                 delete = 0,
                 deleteOthers = 3,
                 list = 0,
-                listOthers = 2;
+                listOthers = 2,
+                stats = 2;
 
         public int getNormalStart() {
             return normalStart;
@@ -211,6 +214,15 @@ public class AlphabetSpeedrunConfigData {
             this.listOthers = listOthers;
         }
 
+        public int getStats() {
+            return stats;
+        }
+
+        public void setStats(int stats) {
+            checkPermissionRange(stats);
+            this.stats = stats;
+        }
+
         public int getDraft() {
             return draft;
         }
@@ -252,6 +264,7 @@ public class AlphabetSpeedrunConfigData {
                     .append(deleteOthers, that.deleteOthers)
                     .append(list, that.list)
                     .append(listOthers, that.listOthers)
+                    .append(stats, that.stats)
                     .isEquals();
         }
 
@@ -276,6 +289,7 @@ public class AlphabetSpeedrunConfigData {
                     .append(deleteOthers)
                     .append(list)
                     .append(listOthers)
+                    .append(stats)
                     .toHashCode();
         }
 
@@ -300,6 +314,7 @@ public class AlphabetSpeedrunConfigData {
             writer.name("delete-others").value(getDeleteOthers());
             writer.name("list").value(getList());
             writer.name("list-others").value(getListOthers());
+            writer.name("stats").value(getStats());
             writer.endObject();
         }
 
@@ -325,6 +340,7 @@ public class AlphabetSpeedrunConfigData {
                     case "delete-others" -> setDeleteOthers(reader.nextInt());
                     case "list" -> setList(reader.nextInt());
                     case "list-others" -> setListOthers(reader.nextInt());
+                    case "stats" -> setStats(reader.nextInt());
                     default -> reader.skipValue();
                 }
             }
@@ -390,6 +406,22 @@ public class AlphabetSpeedrunConfigData {
         this.enableLegacyCommands = enableLegacyCommands;
     }
 
+    public BroadcastType getCollectionBroadcast() {
+        return collectionBroadcast;
+    }
+
+    public void setCollectionBroadcast(BroadcastType collectionBroadcast) {
+        this.collectionBroadcast = Objects.requireNonNull(collectionBroadcast);
+    }
+
+    public BroadcastType getCompletionBroadcast() {
+        return completionBroadcast;
+    }
+
+    public void setCompletionBroadcast(BroadcastType completionBroadcast) {
+        this.completionBroadcast = Objects.requireNonNull(completionBroadcast);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -407,6 +439,8 @@ public class AlphabetSpeedrunConfigData {
                 .append(permissions, that.permissions)
                 .append(difficultDifficulties, that.difficultDifficulties)
                 .append(enableLegacyCommands, that.enableLegacyCommands)
+                .append(collectionBroadcast, that.collectionBroadcast)
+                .append(completionBroadcast, that.completionBroadcast)
                 .isEquals();
     }
 
@@ -421,6 +455,8 @@ public class AlphabetSpeedrunConfigData {
                 .append(permissions)
                 .append(difficultDifficulties)
                 .append(enableLegacyCommands)
+                .append(collectionBroadcast)
+                .append(completionBroadcast)
                 .toHashCode();
     }
 
@@ -467,6 +503,21 @@ public class AlphabetSpeedrunConfigData {
                 Default to false.""");
         writer.name("enable-legacy-commands").value(isEnableLegacyCommands());
 
+        writer.comment("""
+                Who receive the message (and the sound) when a player collects an item
+                or an advancement. One of:
+                  SELF      - players running the same record;
+                  MATES     - the above, and PVP mates or coop members;
+                  OPERATORS - the above, and online operators;
+                  ALL       - everyone on the server.
+                Default to ALL.""");
+        writer.name("collection-broadcast").value(getCollectionBroadcast().name());
+
+        writer.comment("""
+                Who receive the message when a record is completed. Same values as
+                "collection-broadcast". Default to ALL.""");
+        writer.name("completion-broadcast").value(getCompletionBroadcast().name());
+
         final var ruleFactory = getDifficultiesWithOp();
         writer.comment("""
                 A collection of item speedrun difficulties.
@@ -510,6 +561,8 @@ public class AlphabetSpeedrunConfigData {
                 case "timer-pauses-when-vacant" -> setTimerPausesWhenVacant(reader.nextBoolean());
                 case "default-invitation-cooldown" -> setDefaultInvitationCooldown(reader.nextInt());
                 case "enable-legacy-commands" -> setEnableLegacyCommands(reader.nextBoolean());
+                case "collection-broadcast" -> setCollectionBroadcast(BroadcastType.valueOf(reader.nextString().toUpperCase(Locale.ROOT)));
+                case "completion-broadcast" -> setCompletionBroadcast(BroadcastType.valueOf(reader.nextString().toUpperCase(Locale.ROOT)));
                 case "difficulties-with-op.inverted" -> difficultyFactoryInverted = reader.nextBoolean();
                 case "difficulties-with-op" -> factoryFactory = switch (reader.peek()) {
                     case STRING -> {
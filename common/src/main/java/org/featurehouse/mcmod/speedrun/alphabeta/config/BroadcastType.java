@@ -21,5 +21,6 @@ package org.featurehouse.mcmod.speedrun.alphabeta.config;
 public enum BroadcastType {
     ALL,
     MATES,
-    SELF
+    SELF,
+    OPERATORS
 }
@@ -0,0 +1,129 @@
+/*
+ * This file is part of αβspeedrun.
+ * Copyright (C) 2022 Pigeonia Featurehouse
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.featurehouse.mcmod.speedrun.alphabeta.item;
+
+import com.mojang.datafixers.util.Either;
+import net.minecraft.advancement.Advancement;
+import net.minecraft.item.ItemStack;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.sound.SoundEvents;
+import org.featurehouse.mcmod.speedrun.alphabeta.config.AlphabetSpeedrunConfigData;
+import org.featurehouse.mcmod.speedrun.alphabeta.config.BroadcastType;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * <p>Holds requirements matched during a tick, and commits them per record
+ * at the end of the server tick.</p>
+ *
+ * <p>{@link ItemSpeedrunEvents#COLLECTED_ONE_EVENT} is fired on commit; the
+ * sound is played and completion is checked once per record, however many
+ * requirements were matched in that tick.</p>
+ */
+@ApiStatus.Internal
+public final class CollectionPipeline {
+    // used on the server thread only
+    private static final CollectionPipeline INSTANCE = new CollectionPipeline();
+    public static CollectionPipeline get() { return INSTANCE; }
+
+    private final Map<UUID, Batch> batches = new LinkedHashMap<>();
+
+    private CollectionPipeline() {}
+
+    /**
+     * @return {@code false} if the requirement is already queued for the record
+     */
+    public boolean enqueue(ServerPlayerEntity player, ItemRecordAccess record, int index,
+                           Either<ItemStack, Advancement> source) {
+        final Batch batch = batches.computeIfAbsent(record.recordId(), k -> new Batch(record));
+        if (batch.record != record) return false;   // same id but replaced, skip until next tick
+        if (batch.queued.get(index)) return false;
+        batch.queued.set(index);
+        // stacks may change before commit
+        batch.entries.add(new Entry(player, index, source.mapLeft(ItemStack::copy)));
+        return true;
+    }
+
+    public boolean isQueued(ItemRecordAccess record, int index) {
+        final Batch batch = batches.get(record.recordId());
+        return batch != null && batch.queued.get(index);
+    }
+
+    public void commit(MinecraftServer server) {
+        if (batches.isEmpty()) return;
+        final List<Batch> l = new ArrayList<>(batches.values());
+        batches.clear();
+        final RecordAudiences audiences = RecordAudiences.fromServer(server);
+        final BroadcastType type = AlphabetSpeedrunConfigData.getInstance().getCollectionBroadcast();
+        final long time = server.getOverworld().getTime();
+        for (Batch batch : l) {
+            batch.commit(audiences, type, time);
+        }
+    }
+
+    /**
+     * Drops queued requirements of a stopped server.
+     */
+    public void clear() {
+        batches.clear();
+    }
+
+    private static final class Batch {
+        final ItemRecordAccess record;
+        final BitSet queued = new BitSet();
+        final List<Entry> entries = new ArrayList<>();
+
+        Batch(ItemRecordAccess record) {
+            this.record = record;
+        }
+
+        void commit(RecordAudiences audiences, BroadcastType type, long time) {
+            final List<SingleSpeedrunPredicate> predicates = record.predicates();
+            @Nullable ServerPlayerEntity last = null;
+            final Set<ServerPlayerEntity> soundAudience = new LinkedHashSet<>();
+            for (Entry e : entries) {
+                // stopped, archived or replaced earlier in this tick
+                if (e.player.alphabetSpeedrun$getItemRecordAccess() != record) continue;
+                if (record.isRequirementPassed(e.index)) continue;
+                final ItemStack icon = predicates.get(e.index).getIcon();
+                if (ItemSpeedrunEvents.COLLECTED_ONE_EVENT.invoker().onCollect(e.source, icon, e.player, record).isFalse()) {
+                    // let the same stack be tested again
+                    e.player.alphabetSpeedrun$getInventoryFingerprint().invalidate();
+                    e.player.alphabetSpeedrun$getInventoryUpdateBuffer().invalidate();
+                    continue;
+                }
+                // coop members may have different audiences
+                final Collection<ServerPlayerEntity> audience = audiences.audience(type, record, e.player);
+                soundAudience.addAll(audience);
+                ItemSpeedrunEvents.setAndAnnounceCollectedOne(e.player, record, icon,
+                        e.source.left().orElse(null), e.index, time, audiences, audience);
+                last = e.player;
+            }
+            if (last != null) {
+                ItemRecordMessages.sendSound(soundAudience, SoundEvents.ENTITY_EXPERIENCE_ORB_PICKUP);
+                ItemSpeedrunEvents.tryFinishRecord(record, time, last);
+            }
+        }
+    }
+
+    private record Entry(ServerPlayerEntity player, int index, Either<ItemStack, Advancement> source) {}
+}
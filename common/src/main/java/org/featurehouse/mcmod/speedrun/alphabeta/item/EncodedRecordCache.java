@@ -0,0 +1,66 @@
+/*
+ * This file is part of αβspeedrun.
+ * Copyright (C) 2022 Pigeonia Featurehouse
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.featurehouse.mcmod.speedrun.alphabeta.item;
+
+import org.featurehouse.mcmod.speedrun.alphabeta.util.AlphaBetaMetrics;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Keeps the last encoded record of a player, so that a player save
+ * re-encodes it only if it has changed. History is kept encoded by the
+ * player, and needn't be cached here.</p>
+ *
+ * <p>The record is considered unchanged while it is the same object with the
+ * same {@link ItemRecordAccess#version()}, and goals haven't been reloaded
+ * (which decides whether requirements can be referenced, see
+ * {@link RecordCodec}).</p>
+ */
+@ApiStatus.Internal
+public final class EncodedRecordCache {
+    static final LongAdder ENCODED = AlphaBetaMetrics.counter("save.records_encoded");
+    static final LongAdder REUSED = AlphaBetaMetrics.counter("save.records_reused");
+    static final LongAdder BYTES = AlphaBetaMetrics.counter("save.bytes_written");
+    static final LongAdder ENCODE_NANOS = AlphaBetaMetrics.counter("save.encode_nanos");
+
+    private @Nullable ItemRecordAccess record;
+    private long version;
+    private int generation;
+    private byte[] recordBytes;
+
+    public byte[] encodeRecord(ItemRecordAccess record) {
+        final long version = record.version();
+        final int generation = ItemSpeedrun.DataLoader.getGeneration();
+        if (record != this.record || version != this.version || generation != this.generation) {
+            final long start = System.nanoTime();
+            recordBytes = RecordCodec.encode(record);
+            ENCODE_NANOS.add(System.nanoTime() - start);
+            ENCODED.increment();
+            this.record = record;
+            this.version = version;
+            this.generation = generation;
+        } else {
+            REUSED.increment();
+        }
+        BYTES.add(recordBytes.length);
+        return recordBytes;
+    }
+}
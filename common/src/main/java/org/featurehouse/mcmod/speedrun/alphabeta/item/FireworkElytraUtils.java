@@ -82,6 +82,11 @@ public class FireworkElytraUtils {
         return nbt != null && nbt.getBoolean(BYPASSES_ITEM_CHECK);
     }
 
+    public static boolean isStamped(ItemStack stack) {
+        final NbtCompound nbt = stack.getNbt();
+        return nbt != null && nbt.contains(RECORD_STAMP);
+    }
+
     /**
      * <p>Returns if the record stamp on the stack matches the record.</p>
      *
@@ -90,24 +95,26 @@ public class FireworkElytraUtils {
      * <p>If the record isn't null, then the stamp must be either absent or
      * matched.</p>
      *
+     * <p>Stamps are stored as UUID int arrays. String stamps written by older
+     * versions are still recognized.</p>
+     *
      * @see AlphabetSpeedrunConfigData#isItemsOnlyAvailableWhenRunning()
      */
     public static boolean stampsRecord(ItemStack stack, @Nullable ItemRecordAccess record) {
         if (stack.isEmpty()) return false;
         final NbtCompound nbt = stack.getNbt();
         // if the stack isn't stamped, then a true should be returned.
-        if (nbt == null || !nbt.contains(RECORD_STAMP, NbtElement.STRING_TYPE)) {
-            return true;
+        if (nbt == null) return true;
+        if (nbt.containsUuid(RECORD_STAMP)) {
+            return record != null && nbt.getUuid(RECORD_STAMP).equals(record.recordId());
         }
-
-        if (record != null) {
-            return Objects.equals(nbt.getString(RECORD_STAMP), record.recordId().toString());
+        if (nbt.contains(RECORD_STAMP, NbtElement.STRING_TYPE)) {
+            return record != null && Objects.equals(nbt.getString(RECORD_STAMP), record.recordId().toString());
         }
-
-        return false;
+        return true;
     }
 
     public static void putRecordStamp(ItemStack stack, @NotNull ItemRecordAccess record) {
-        stack.getOrCreateNbt().putString(RECORD_STAMP, record.recordId().toString());
+        stack.getOrCreateNbt().putUuid(RECORD_STAMP, record.recordId());
     }
 }
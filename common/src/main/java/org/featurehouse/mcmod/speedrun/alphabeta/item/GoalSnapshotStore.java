@@ -0,0 +1,212 @@
+/*
+ * This file is part of αβspeedrun.
+ * Copyright (C) 2022 Pigeonia Featurehouse
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.featurehouse.mcmod.speedrun.alphabeta.item;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.mojang.logging.LogUtils;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.JsonHelper;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.RecordIoExecutor;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * <p>Requirement lists of goals, stored once per distinct
+ * {@link GoalTemplate#contentHash()} under
+ * {@code alphabet-speedrun-records/goals/<hash>.json}, so that records can
+ * reference them and share one template in memory.</p>
+ *
+ * <p>Save paths call {@link #persist(GoalTemplate)}, which writes the
+ * snapshot on the record I/O thread. Serialization only checks
+ * {@link #isStored(long)}: records saved before the snapshot is on disk embed
+ * their requirements. Snapshots are all read and checked against their hash
+ * when the server starts, so resolving a reference never touches the disk.
+ * A reference whose snapshot is lost fails to decode, rather than binding
+ * progress to requirements of a changed goal.</p>
+ *
+ * @see ItemSpeedrunRecord#toJson()
+ */
+@ApiStatus.Internal
+public final class GoalSnapshotStore {
+    private GoalSnapshotStore() {}
+
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final Gson GSON = new Gson();
+    private static final Pattern FILENAME_PATTERN = Pattern.compile("^[0-9a-f]{16}\\.json$");
+
+    private static volatile @Nullable Path root;
+    private static final Map<Long, GoalTemplate> TEMPLATES = new ConcurrentHashMap<>();
+    // templates read under another goal ID
+    private static final Map<Rebound, GoalTemplate> REBOUND = new ConcurrentHashMap<>();
+    private static final Set<Long> WRITING = ConcurrentHashMap.newKeySet();
+
+    private record Rebound(Identifier goalId, long hash) {}
+
+    /**
+     * Reads all snapshots under the directory, or forgets them if {@code null}.
+     */
+    static void setRoot(@Nullable Path root) {
+        GoalSnapshotStore.root = root;
+        TEMPLATES.clear();
+        REBOUND.clear();
+        WRITING.clear();
+        if (root != null) preload(root);
+    }
+
+    static String hashToString(long hash) {
+        return String.format(Locale.ROOT, "%016x", hash);
+    }
+
+    static long hashFromString(String s) {
+        return Long.parseUnsignedLong(s, 16);
+    }
+
+    /**
+     * @return whether the snapshot is on disk, so that it can be referenced
+     */
+    static boolean isStored(long hash) {
+        return TEMPLATES.containsKey(hash);
+    }
+
+    /**
+     * Schedules the snapshot of the template to be written, if it isn't on
+     * disk yet. Called on the server thread by paths saving records.
+     */
+    public static void persist(GoalTemplate template) {
+        final long hash = template.contentHash();
+        if (isStored(hash)) return;
+        final Path dir = root;
+        if (dir == null || !WRITING.add(hash)) return;
+
+        // serialized here, as requirements hold item stacks
+        JsonObject obj = new JsonObject();
+        obj.addProperty("goal_id", template.goalId().toString());
+        JsonArray arr = new JsonArray();
+        template.predicates().forEach(p -> arr.add(p.serialize()));
+        obj.add("predicates", arr);
+        final byte[] bytes = GSON.toJson(obj).getBytes(StandardCharsets.UTF_8);
+
+        RecordIoExecutor.supply(() -> {
+            write(dir.resolve(hashToString(hash) + ".json"), bytes);
+            return null;
+        }).whenComplete((v, e) -> {
+            if (root != dir) return;    // server stopped
+            if (e == null) {
+                TEMPLATES.putIfAbsent(hash, template);
+            } else if (!(e instanceof RecordIoExecutor.BusyException)) {
+                LOGGER.error("Failed to store snapshot of goal {}", template.goalId(), e);
+            }
+            // retried on the next save, if failed
+            WRITING.remove(hash);
+        });
+    }
+
+    private static void write(Path path, byte[] bytes) throws IOException {
+        // a corrupt snapshot is written again
+        if (Files.exists(path) && Arrays.equals(Files.readAllBytes(path), bytes)) return;
+        Files.createDirectories(path.getParent());
+        final Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer buf = ByteBuffer.wrap(bytes);
+            while (buf.hasRemaining())
+                ch.write(buf);
+            ch.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the template with the given content, or {@code null} if there is
+     * no such snapshot
+     */
+    static @Nullable GoalTemplate get(Identifier goalId, long hash) {
+        final ItemSpeedrun goal = ItemSpeedrun.get(goalId);
+        if (goal != null && goal.template().contentHash() == hash)
+            return goal.template();
+
+        final GoalTemplate template = TEMPLATES.get(hash);
+        if (template == null || template.goalId().equals(goalId)) return template;
+        // Same requirements under another goal ID
+        return REBOUND.computeIfAbsent(new Rebound(goalId, hash), k -> GoalTemplate.of(goalId, template.predicates()));
+    }
+
+    /**
+     * @throws JsonParseException if the snapshot is absent or corrupt
+     */
+    static GoalTemplate resolve(Identifier goalId, long hash) throws JsonParseException {
+        final GoalTemplate template = get(goalId, hash);
+        if (template == null)
+            throw new JsonParseException("Snapshot " + hashToString(hash) + " of goal " + goalId + " is absent or corrupt");
+        return template;
+    }
+
+    private static void preload(Path dir) {
+        if (Files.notExists(dir)) return;
+        final List<Path> paths;
+        try (Stream<Path> l = Files.list(dir)) {
+            paths = l.filter(p -> FILENAME_PATTERN.matcher(p.getFileName().toString()).matches()).toList();
+        } catch (IOException e) {
+            LOGGER.error("Failed to list goal snapshots in {}", dir, e);
+            return;
+        }
+        for (Path path : paths) {
+            final String fn = path.getFileName().toString();
+            final long hash = hashFromString(fn.substring(0, fn.length() - ".json".length()));
+            final GoalTemplate template = read(path, hash);
+            if (template != null)
+                TEMPLATES.put(hash, template);
+        }
+        LOGGER.debug("Loaded {} goal snapshots from {}", TEMPLATES.size(), dir);
+    }
+
+    private static @Nullable GoalTemplate read(Path path, long hash) {
+        final GoalTemplate template;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            final JsonObject obj = GSON.fromJson(reader, JsonObject.class);
+            final JsonArray arr = JsonHelper.getArray(obj, "predicates");
+            List<SingleSpeedrunPredicate> predicates = new ArrayList<>(arr.size());
+            arr.forEach(e -> predicates.add(SingleSpeedrunPredicate.deserialize(JsonHelper.asObject(e, "predicate"))));
+            template = GoalTemplate.of(new Identifier(JsonHelper.getString(obj, "goal_id")), predicates);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Failed to read goal snapshot {}", path, e);
+            return null;
+        }
+        if (template.contentHash() != hash) {
+            LOGGER.error("Goal snapshot {} doesn't match its hash; ignoring it", path);
+            return null;
+        }
+        return template;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * This file is part of αβspeedrun.
+ * Copyright (C) 2022 Pigeonia Featurehouse
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.featurehouse.mcmod.speedrun.alphabeta.item;
+
+import com.google.common.base.Suppliers;
+import com.google.common.hash.Hashing;
+import com.google.gson.JsonArray;
+import net.minecraft.item.ItemStack;
+import net.minecraft.util.Identifier;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * <p>The immutable, compiled form of a goal: flattened requirements, their
+ * icons and lookup indices.</p>
+ *
+ * <p>Templates are shared by every record of the same goal, so only the
+ * per-player progress is allocated when a run starts.</p>
+ *
+ * @see ItemSpeedrun#template()
+ */
+public final class GoalTemplate {
+    private static final int[] EMPTY = new int[0];
+
+    private final Identifier goalId;
+    private final List<SingleSpeedrunPredicate> predicates;
+    private final List<ItemStack> icons;
+    private final ItemPredicateIndex itemIndex;
+    private final boolean countSensitive;
+    private final Map<Identifier, int[]> advancementIndex;
+    private final Supplier<Long> contentHash = Suppliers.memoize(this::computeContentHash);
+
+    private GoalTemplate(Identifier goalId, List<SingleSpeedrunPredicate> predicates) {
+        this.goalId = goalId;
+        this.predicates = predicates;
+        this.icons = predicates.stream().map(SingleSpeedrunPredicate::getIcon).toList();
+        this.itemIndex = ItemPredicateIndex.build(predicates);
+        this.countSensitive = predicates.stream().anyMatch(SingleSpeedrunPredicate::isCountSensitive);
+        this.advancementIndex = buildAdvancementIndex(predicates);
+    }
+
+    private static Map<Identifier, int[]> buildAdvancementIndex(List<SingleSpeedrunPredicate> predicates) {
+        Map<Identifier, List<Integer>> m = new HashMap<>();
+        for (int i = 0; i < predicates.size(); i++) {
+            final Identifier id = predicates.get(i).advancementId();
+            if (id != null)
+                m.computeIfAbsent(id, k -> new ArrayList<>(1)).add(i);
+        }
+        Map<Identifier, int[]> ret = new HashMap<>(m.size());
+        m.forEach((id, indices) -> ret.put(id, indices.stream().mapToInt(Integer::intValue).toArray()));
+        return ret;
+    }
+
+    static GoalTemplate compile(Identifier goalId, List<ItemPredicateProvider> providers) {
+        return of(goalId, providers.stream().flatMap(ItemPredicateProvider::flatMaps).toList());
+    }
+
+    /**
+     * Wraps requirements that don't come from a loaded goal, e.g. ones read
+     * from a stored record.
+     */
+    public static GoalTemplate of(Identifier goalId, List<SingleSpeedrunPredicate> predicates) {
+        return new GoalTemplate(goalId, List.copyOf(predicates));
+    }
+
+    public Identifier goalId() {
+        return goalId;
+    }
+
+    public List<SingleSpeedrunPredicate> predicates() {
+        return predicates;
+    }
+
+    public int size() {
+        return predicates.size();
+    }
+
+    public List<ItemStack> copyIcons() {
+        return icons.stream().map(ItemStack::copy).toList();
+    }
+
+    public ItemPredicateIndex itemIndex() {
+        return itemIndex;
+    }
+
+    /**
+     * @return indices (ascending) of requirements met by the advancement.
+     * The returned array must not be modified.
+     */
+    public int[] advancementCandidates(Identifier advancementId) {
+        return advancementIndex.getOrDefault(advancementId, EMPTY);
+    }
+
+    /**
+     * @return a hash of the serialized requirements, which identifies the
+     * goal content regardless of its ID
+     */
+    public long contentHash() {
+        return contentHash.get();
+    }
+
+    private long computeContentHash() {
+        JsonArray arr = new JsonArray();
+        predicates.forEach(p -> arr.add(p.serialize()));
+        return Hashing.sha256().hashString(arr.toString(), StandardCharsets.UTF_8).asLong();
+    }
+
+    /**
+     * @return whether the stack count may affect any requirement
+     */
+    public boolean isCountSensitive() {
+        return countSensitive;
+    }
+}
@@ -18,11 +18,13 @@
 
 package org.featurehouse.mcmod.speedrun.alphabeta.item;
 
-import com.google.gson.JsonObject;
 import net.minecraft.obfuscate.DontObfuscate;
+import org.featurehouse.mcmod.speedrun.alphabeta.config.AlphabetSpeedrunConfigData;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.UUID;
+
 @ApiStatus.Internal
 @ApiStatus.NonExtendable
 public interface InternalItemCollector extends ItemCollector {
@@ -34,7 +36,34 @@ public interface InternalItemCollector extends ItemCollector {
     default ItemSpeedrunRecord alphabetSpeedrun$getHistory(){throw new AssertionError();}
     @ApiStatus.Internal
     @DontObfuscate
-    default JsonObject alphabetSpeedrun$internal$getHistoryRaw() { throw new AssertionError(); }
+    default byte[] alphabetSpeedrun$internal$getHistoryRaw() { throw new AssertionError(); }
+
+    /**
+     * @return the id of the history record, without decoding it; {@code null}
+     * if there is no history, or it could not be read
+     */
+    @ApiStatus.Internal
+    @Nullable
+    default UUID alphabetSpeedrun$getHistoryRecordId() { throw new AssertionError(); }
+    @ApiStatus.Internal
+    default InventoryFingerprint alphabetSpeedrun$getInventoryFingerprint() { throw new AssertionError(); }
+
+    @ApiStatus.Internal
+    default InventoryUpdateBuffer alphabetSpeedrun$getInventoryUpdateBuffer() { throw new AssertionError(); }
+
+    /**
+     * Requests a sweep of items stamped for other records at the end of the
+     * player tick.
+     * @see AlphabetSpeedrunConfigData#isItemsOnlyAvailableWhenRunning()
+     */
+    @ApiStatus.Internal
+    default void alphabetSpeedrun$markStampPurge() { throw new AssertionError(); }
+
+    /**
+     * @return whether a sweep was requested; the request is cleared
+     */
+    @ApiStatus.Internal
+    default boolean alphabetSpeedrun$pollStampPurge() { throw new AssertionError(); }
 
     @Override
     @Deprecated
@@ -0,0 +1,90 @@
+/*
+ * This file is part of αβspeedrun.
+ * Copyright (C) 2022 Pigeonia Featurehouse
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.featurehouse.mcmod.speedrun.alphabeta.item;
+
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.NbtCompound;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * <p>Remembers the contents of each inventory slot at the time it was last
+ * evaluated against a record, so that a resume only re-tests slots whose
+ * item or NBT have changed since.</p>
+ *
+ * <p>Skipping is safe because the set of uncollected requirements of a
+ * record only shrinks: a stack that matched nothing before cannot match
+ * anything now. Count is compared only if the goal has count-sensitive
+ * requirements.</p>
+ */
+@ApiStatus.Internal
+public final class InventoryFingerprint {
+    private @Nullable UUID recordId;
+    private boolean countSensitive;
+    private Item[] items = new Item[0];
+    private int[] nbtHashes = new int[0];
+    private int[] counts = new int[0];
+
+    /**
+     * Prepares for a scan of an inventory of {@code size} slots, and forgets
+     * everything if the record or the inventory size has changed.
+     */
+    public void begin(ItemRecordAccess record, int size) {
+        if (!record.recordId().equals(recordId) || items.length != size) {
+            recordId = record.recordId();
+            countSensitive = record.template().isCountSensitive();
+            items = new Item[size];
+            nbtHashes = new int[size];
+            counts = new int[size];
+        }
+    }
+
+    public boolean isUpToDate(int slot, ItemStack stack) {
+        if (slot >= items.length) return false;
+        if (stack.isEmpty()) return items[slot] == null;
+        return items[slot] == stack.getItem()
+                && nbtHashes[slot] == nbtHash(stack)
+                && (!countSensitive || counts[slot] == stack.getCount());
+    }
+
+    public void update(int slot, ItemStack stack) {
+        if (slot >= items.length) return;
+        if (stack.isEmpty()) {
+            items[slot] = null;
+            return;
+        }
+        items[slot] = stack.getItem();
+        nbtHashes[slot] = nbtHash(stack);
+        counts[slot] = stack.getCount();
+    }
+
+    public void invalidate() {
+        recordId = null;
+        Arrays.fill(items, null);
+    }
+
+    static int nbtHash(ItemStack stack) {
+        final NbtCompound nbt = stack.getNbt();
+        return nbt == null ? 0 : nbt.hashCode();
+    }
+}
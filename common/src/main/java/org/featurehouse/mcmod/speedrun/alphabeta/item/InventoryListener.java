@@ -33,9 +33,17 @@ public final class InventoryListener implements ScreenHandlerListener {
 
     @Override
     public void onSlotUpdate(ScreenHandler handler, int slotId, ItemStack stack) {
+        if (stack.isEmpty()) return;
+        final ItemRecordAccess record = serverPlayer.alphabetSpeedrun$getItemRecordAccess();
+        final boolean foreignStamp = FireworkElytraUtils.isStamped(stack) && !FireworkElytraUtils.stampsRecord(stack, record);
+        if (record == null && !foreignStamp) return;
         Slot slot = handler.getSlot(slotId);
         if (slot.inventory == serverPlayer.getInventory()) {
-            ItemSpeedrunEvents.onItemPickup(serverPlayer, stack);
+            if (foreignStamp)
+                serverPlayer.alphabetSpeedrun$markStampPurge();
+            // evaluated at the end of player tick
+            if (record != null)
+                serverPlayer.alphabetSpeedrun$getInventoryUpdateBuffer().offer(record, stack);
         }
     }
 
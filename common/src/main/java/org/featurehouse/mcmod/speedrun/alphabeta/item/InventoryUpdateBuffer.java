@@ -0,0 +1,98 @@
+/*
+ * This file is part of αβspeedrun.
+ * Copyright (C) 2022 Pigeonia Featurehouse
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.featurehouse.mcmod.speedrun.alphabeta.item;
+
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.server.network.ServerPlayerEntity;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.AlphaBetaMetrics;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Collects the stacks reported by {@link InventoryListener} during a tick,
+ * and evaluates each distinct stack once at the end of the player tick.</p>
+ *
+ * <p>Stacks are keyed on item and NBT (and count, for count-sensitive
+ * goals). Keys that were already evaluated against the current record are
+ * skipped until the record changes; the set is cleared when it grows too
+ * large.</p>
+ */
+@ApiStatus.Internal
+public final class InventoryUpdateBuffer {
+    private static final int MAX_EVALUATED = 512;
+
+    static final LongAdder EVALUATED = AlphaBetaMetrics.counter("inventory.stacks_evaluated");
+    static final LongAdder SKIPPED = AlphaBetaMetrics.counter("inventory.stacks_skipped");
+
+    private @Nullable ItemRecordAccess record;
+    private final Set<Key> evaluated = new HashSet<>();
+    private final Map<Key, ItemStack> pending = new LinkedHashMap<>();
+
+    public void offer(ItemRecordAccess record, ItemStack stack) {
+        if (this.record != record) {
+            this.record = record;
+            evaluated.clear();
+            pending.clear();
+        }
+        final boolean countSensitive = record.template().isCountSensitive();
+        final Key key = Key.of(stack, countSensitive);
+        if (evaluated.contains(key) || pending.containsKey(key)) {
+            SKIPPED.increment();
+            return;
+        }
+        // keys must not share NBT with live stacks
+        final ItemStack copy = stack.copy();
+        pending.put(Key.of(copy, countSensitive), copy);
+    }
+
+    public void flush(ServerPlayerEntity player) {
+        if (pending.isEmpty()) return;
+        final ItemRecordAccess current = player.alphabetSpeedrun$getItemRecordAccess();
+        if (current == null || current != record) {
+            pending.clear();
+            return;
+        }
+        for (Iterator<Map.Entry<Key, ItemStack>> itr = pending.entrySet().iterator(); itr.hasNext(); ) {
+            final Map.Entry<Key, ItemStack> e = itr.next();
+            itr.remove();
+            EVALUATED.increment();
+            ItemSpeedrunEvents.evaluateStack(player, current, e.getValue());
+            if (evaluated.size() >= MAX_EVALUATED) evaluated.clear();
+            evaluated.add(e.getKey());
+        }
+    }
+
+    /**
+     * Forgets evaluated stacks, e.g. after a collection was vetoed.
+     */
+    public void invalidate() {
+        evaluated.clear();
+    }
+
+    private record Key(Item item, @Nullable NbtCompound nbt, int count) {
+        static Key of(ItemStack stack, boolean countSensitive) {
+            return new Key(stack.getItem(), stack.getNbt(), countSensitive ? stack.getCount() : 0);
+        }
+    }
+}
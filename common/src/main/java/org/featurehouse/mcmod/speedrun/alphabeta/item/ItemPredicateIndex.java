@@ -0,0 +1,98 @@
+/*
+ * This file is part of αβspeedrun.
+ * Copyright (C) 2022 Pigeonia Featurehouse
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.featurehouse.mcmod.speedrun.alphabeta.item;
+
+import net.minecraft.item.Item;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.*;
+
+/**
+ * <p>Maps an {@link Item} to the indices of requirements that may possibly
+ * be satisfied by a stack of that item.</p>
+ *
+ * <p>Predicates that cannot tell their candidate items in advance (tags,
+ * any-item predicates, custom implementations) fall into a generic bucket,
+ * which is merged into every per-item bucket.</p>
+ *
+ * @see SingleSpeedrunPredicate#candidateItems()
+ */
+@ApiStatus.Internal
+public final class ItemPredicateIndex {
+    private static final int[] EMPTY = new int[0];
+
+    private final Map<Item, int[]> byItem;
+    private final int[] generic;
+
+    private ItemPredicateIndex(Map<Item, int[]> byItem, int[] generic) {
+        this.byItem = byItem;
+        this.generic = generic;
+    }
+
+    public static ItemPredicateIndex build(List<? extends SingleSpeedrunPredicate> predicates) {
+        Map<Item, List<Integer>> specific = new IdentityHashMap<>();
+        List<Integer> generic = new ArrayList<>();
+        for (int i = 0; i < predicates.size(); i++) {
+            final Set<Item> items = predicates.get(i).candidateItems();
+            if (items == null) {
+                generic.add(i);
+                continue;
+            }
+            for (Item item : items) {
+                specific.computeIfAbsent(item, k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        final int[] genericArr = toArray(generic);
+        Map<Item, int[]> byItem = new IdentityHashMap<>(specific.size());
+        specific.forEach((item, indices) -> byItem.put(item, merge(toArray(indices), genericArr)));
+        return new ItemPredicateIndex(byItem, genericArr);
+    }
+
+    /**
+     * @return ascending indices of requirements that might match the item.
+     * The returned array must not be modified.
+     */
+    public int[] candidates(Item item) {
+        return byItem.getOrDefault(item, generic);
+    }
+
+    private static int[] toArray(List<Integer> l) {
+        if (l.isEmpty()) return EMPTY;
+        int[] arr = new int[l.size()];
+        for (int i = 0; i < arr.length; i++)
+            arr[i] = l.get(i);
+        return arr;
+    }
+
+    // both a and b are ascending
+    private static int[] merge(int[] a, int[] b) {
+        if (b.length == 0) return a;
+        int[] r = new int[a.length + b.length];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) r[k++] = a[i++];
+            else if (a[i] > b[j]) r[k++] = b[j++];
+            else { r[k++] = a[i++]; j++; }
+        }
+        while (i < a.length) r[k++] = a[i++];
+        while (j < b.length) r[k++] = b[j++];
+        return k == r.length ? r : Arrays.copyOf(r, k);
+    }
+}
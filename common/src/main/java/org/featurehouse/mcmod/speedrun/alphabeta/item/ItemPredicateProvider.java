@@ -55,6 +55,13 @@ public sealed interface ItemPredicateProvider {
     // NOTE: the ItemStack should contain simple notation as tooltips
     Stream<SingleSpeedrunPredicate> flatMaps();
 
+    /**
+     * @return tags whose contents decide what {@link #flatMaps()} returns
+     */
+    default Set<TagKey<Item>> expandedTags() {
+        return Collections.emptySet();
+    }
+
     static List<ItemPredicateProvider> fromJson(JsonElement element) {
         JsonArray arr = JsonHelper.asArray(element, "item_ctx");
         ImmutableList.Builder<ItemPredicateProvider> builder = ImmutableList.builder();
@@ -195,6 +202,11 @@ public sealed interface ItemPredicateProvider {
                         .map(RegistryEntry::value)
                         .map(Impl::mapItem);
             }
+
+            @Override
+            public Set<TagKey<Item>> expandedTags() {
+                return Collections.singleton(tagKey());
+            }
         }
 
         // @param itemPredicate must be checked.
@@ -216,6 +228,11 @@ public sealed interface ItemPredicateProvider {
                             return new SingleSpeedrunPredicate.OfItemPredicate(ItemPredicate.fromJson(itemPredicate), stack);
                         });
             }
+
+            @Override
+            public Set<TagKey<Item>> expandedTags() {
+                return Collections.singleton(tagKey());
+            }
         }
 
         private record AnythingInTag(TagKey<Item> tagKey) implements ItemPredicateProvider {
@@ -289,6 +306,11 @@ public sealed interface ItemPredicateProvider {
         }
 
         private record WithExplicitIcon(IconState iconState, ItemStack icon, ItemPredicateProvider wrapped) implements ItemPredicateProvider {
+            @Override
+            public Set<TagKey<Item>> expandedTags() {
+                return wrapped().expandedTags();
+            }
+
             @Override
             public Stream<SingleSpeedrunPredicate> flatMaps() {
                 return wrapped().flatMaps().map(p -> {
@@ -302,14 +324,29 @@ public sealed interface ItemPredicateProvider {
                             return p.testItemStack(stack);
                         }
 
+                        @Override
+                        public @Nullable Set<Item> candidateItems() {
+                            return p.candidateItems();
+                        }
+
+                        @Override
+                        public boolean isCountSensitive() {
+                            return p.isCountSensitive();
+                        }
+
                         @Override
                         public boolean fitsAdvancementGet(Advancement advancement) {
                             return p.fitsAdvancementGet(advancement);
                         }
 
+                        @Override
+                        public @Nullable Identifier advancementId() {
+                            return p.advancementId();
+                        }
+
                         @Override
                         public ItemStack getIcon() {
-                            return icon;
+                            return icon.copy();
                         }
 
                         @Override
@@ -18,7 +18,6 @@
 
 package org.featurehouse.mcmod.speedrun.alphabeta.item;
 
-import com.google.common.base.Preconditions;
 import com.google.gson.JsonObject;
 import net.minecraft.item.ItemStack;
 import net.minecraft.server.PlayerManager;
@@ -30,35 +29,18 @@ import org.featurehouse.mcmod.speedrun.alphabeta.item.coop.CoopRecordAccess;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.coop.CoopRecordManager;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.difficulty.ItemSpeedrunDifficulty;
 import org.featurehouse.mcmod.speedrun.alphabeta.util.MixinSensitive;
+import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.Collection;
 import java.util.List;
-import java.util.Locale;
 import java.util.UUID;
 import java.util.regex.Pattern;
-import java.util.stream.Stream;
 
 @MixinSensitive
 public interface ItemRecordAccess {
     Pattern SHORT_NAME_PATTERN = Pattern.compile("^\\u0023[0-9A-F]{4}$");
 
-    static Collection<? extends Path> pathFromShortName(Path rootPath, String shortName) throws IOException {
-        Preconditions.checkArgument(SHORT_NAME_PATTERN.matcher(shortName).matches(), "short name should be like #1234");
-        var shortName0 = shortName.substring(1);
-
-        try (Stream<Path> s = Files.list(rootPath)) {
-            return s.filter(p -> {
-                String fn = p.getFileName().toString();
-                return StoredItemRecords.FILENAME_PATTERN.matcher(fn).matches() &&
-                        fn.toUpperCase(Locale.ROOT).startsWith(shortName0);
-            }).toList();
-        }
-    }
-
     static ItemRecordAccess fromJsonMeta(JsonObject obj, CoopRecordManager coopMgr) {
         var coop = CoopRecord.tryParseMeta(coopMgr, obj);
         if (coop != null) return coop;
@@ -76,7 +58,13 @@ public interface ItemRecordAccess {
     long timeSince(long current);
     Identifier goalId();
     UUID recordId();
+    GoalTemplate template();
     List<SingleSpeedrunPredicate> predicates();
+    ItemPredicateIndex itemIndex();
+    /**
+     * @return a copy of the time each requirement is collected at, or
+     * {@code -1} for uncollected ones
+     */
     long[] collected();
     long startTime();
     long finishTime();
@@ -87,6 +75,14 @@ public interface ItemRecordAccess {
     void setVacantTime(long vacantTime);
     ItemSpeedrunDifficulty difficulty();
 
+    /**
+     * @return a number that changes whenever the progress, times or mates of
+     * the record are modified
+     */
+    long version();
+    @ApiStatus.Internal
+    RecordSnapshot.TextCache snapshotTextCache();
+
     // Coop Compatibility
     default boolean isCoop() { return false; }
     default CoopRecordAccess asCoop() throws IllegalStateException {
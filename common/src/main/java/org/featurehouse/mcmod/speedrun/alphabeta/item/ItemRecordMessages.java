@@ -29,6 +29,8 @@ import net.minecraft.text.Text;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.UUID;
 
 @ApiStatus.Internal
@@ -42,8 +44,8 @@ public final class ItemRecordMessages {
         final Text itemName = displayedStack.toHoverableText();
         final int size0 = record.getCollectedCount();
         final int size1 = record.predicates().size();
-        RecordSnapshot record1 = RecordSnapshot.fromRecord(record, currentTime);
-        final Text time = time(record1.duration());
+        final Text time = time(record.timeSince(currentTime));
+        final Text recordText = RecordSnapshot.asText(record, currentTime);
         if (actualStack != null) {
             final NbtCompound nbt = actualStack.getNbt();
             if (nbt != null) {
@@ -51,28 +53,27 @@ public final class ItemRecordMessages {
                     case 1 -> {
                         final Text actualName = actualStack.toHoverableText();
                         return Text.translatable("message.speedrun.alphabet.item.collected.with_actual",
-                                entityName, itemName, size0, size1, time, record1.asText(), actualName);
+                                entityName, itemName, size0, size1, time, recordText, actualName);
                     }
                     case 2 -> {
                         final Text actualName = actualStack.toHoverableText();
                         return Text.translatable("message.speedrun.alphabet.item.collected.actual_only",
-                                entityName, actualName, size0, size1, time, record1.asText());
+                                entityName, actualName, size0, size1, time, recordText);
                     }
                 }
             }
         }
         return Text.translatable("message.speedrun.alphabet.item.collected",
-                entityName, itemName, size0, size1, time, record1.asText());
+                entityName, itemName, size0, size1, time, recordText);
     }
 
     public static Text itemCompleted(PlayerEntity player, ItemRecordAccess record, long currentTime) {
         final Text entityName = player.getDisplayName();
         final int size = record.predicates().size();
-        //final Text time = time(record.timeSince(currentTime));
-        RecordSnapshot record1 = RecordSnapshot.fromRecord(record, currentTime);
-        final Text time = time(record1.duration());
+        final Text time = time(record.timeSince(currentTime));
+        final Text recordText = RecordSnapshot.asText(record, currentTime);
         return Text.translatable("message.speedrun.alphabet.item.completed",
-                entityName, size, time, record1.asText());
+                entityName, size, time, recordText);
     }
 
     private static final char[] HEX = "0123456789ABCDEF".toCharArray();
@@ -102,16 +103,23 @@ public final class ItemRecordMessages {
     }
 
     public static void sendSound(PlayerManager mgr, SoundEvent sound) {
-        mgr.getPlayerList().forEach(p -> p.playSound(sound, SoundCategory.AMBIENT, .8F, 1.0F));
+        sendSound(mgr.getPlayerList(), sound);
+    }
+
+    public static void sendSound(Collection<? extends PlayerEntity> audience, SoundEvent sound) {
+        audience.forEach(p -> p.playSound(sound, SoundCategory.AMBIENT, .8F, 1.0F));
     }
 
     public static void sendWinSound(PlayerEntity winner, PlayerManager mgr) {
-        mgr.getPlayerList().forEach(p -> {
-            if (p != winner) {
+        sendWinSound(Collections.singleton(winner), mgr.getPlayerList());
+    }
+
+    public static void sendWinSound(Collection<? extends PlayerEntity> winners, Collection<? extends PlayerEntity> audience) {
+        audience.forEach(p -> {
+            if (!winners.contains(p)) {
                 p.playSound(SoundEvents.ENTITY_EXPERIENCE_ORB_PICKUP, SoundCategory.AMBIENT, .8F, 1.0F);
-            } else {
-                p.playSound(SoundEvents.UI_TOAST_CHALLENGE_COMPLETE, SoundCategory.AMBIENT, .8F, 1.0F);
             }
         });
+        winners.forEach(p -> p.playSound(SoundEvents.UI_TOAST_CHALLENGE_COMPLETE, SoundCategory.AMBIENT, .8F, 1.0F));
     }
 }
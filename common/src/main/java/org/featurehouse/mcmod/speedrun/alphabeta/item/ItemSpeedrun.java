@@ -18,6 +18,9 @@
 
 package org.featurehouse.mcmod.speedrun.alphabeta.item;
 
+import com.google.common.base.Stopwatch;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.gson.*;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import com.mojang.logging.LogUtils;
@@ -25,16 +28,26 @@ import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NbtCompound;
 import net.minecraft.nbt.StringNbtReader;
+import net.minecraft.registry.entry.RegistryEntry;
+import net.minecraft.registry.tag.TagKey;
 import net.minecraft.resource.JsonDataLoader;
 import net.minecraft.resource.ResourceManager;
+import net.minecraft.resource.SinglePreparationResourceReloader;
 import net.minecraft.text.Text;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.JsonHelper;
 import net.minecraft.util.profiler.Profiler;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.AlphaBetaMetrics;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.hooks.MultiverseHooks;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
 
 public record ItemSpeedrun(
         Identifier id,
@@ -42,6 +55,20 @@ public record ItemSpeedrun(
         Text display,
         List<ItemPredicateProvider> items
 ) {
+    // Compiled on first use rather than in DataLoader#apply: item tags are
+    // bound to the registry only after all reload listeners are applied.
+    private static final Map<Identifier, TemplateCache> TEMPLATES = new ConcurrentHashMap<>();
+
+    /**
+     * @return the compiled template shared by all records of this goal
+     */
+    public GoalTemplate template() {
+        TemplateCache cache = TEMPLATES.get(id);
+        if (cache == null || cache.goal != this)
+            cache = TEMPLATES.compute(id, (k, old) -> old != null && old.goal == this ? old : new TemplateCache(this));
+        return cache.get();
+    }
+
     @Override
     public ItemStack icon() {
         return icon.copy();
@@ -57,42 +84,170 @@ public record ItemSpeedrun(
         return DataLoader.getCurrentData().get(id);
     }
 
-    public static class DataLoader extends JsonDataLoader {
-        private static Map<Identifier, ItemSpeedrun> currentData;
-        private static final Logger LOGGER = LogUtils.getLogger();
+    /**
+     * Compiles the template, and compiles it again after a reload only if
+     * contents of the tags it expands have changed. Goals whose JSON didn't
+     * change are kept across reloads by {@link DataLoader}, with this cache.
+     */
+    private static final class TemplateCache {
+        private static final LongAdder COMPILED = AlphaBetaMetrics.counter("goals.compiled");
+        private static final LongAdder COMPILE_NANOS = AlphaBetaMetrics.counter("goals.compile_nanos");
+
+        final ItemSpeedrun goal;
+        private final Set<TagKey<Item>> tags;
+        private volatile @Nullable GoalTemplate template;
+        private volatile int generation = -1;
+        private long tagFingerprint;
+
+        TemplateCache(ItemSpeedrun goal) {
+            this.goal = goal;
+            this.tags = goal.items().stream()
+                    .flatMap(p -> p.expandedTags().stream())
+                    .collect(Collectors.toCollection(LinkedHashSet::new));
+        }
+
+        GoalTemplate get() {
+            final int gen = DataLoader.getGeneration();
+            GoalTemplate t = template;
+            if (t != null && generation == gen) return t;
+            synchronized (this) {
+                t = template;
+                if (t != null && generation == gen) return t;
+                final long fingerprint = tagFingerprint();
+                if (t == null || fingerprint != tagFingerprint) {
+                    final Stopwatch stopwatch = Stopwatch.createStarted();
+                    t = GoalTemplate.compile(goal.id(), goal.items());
+                    final long nanos = stopwatch.elapsed(TimeUnit.NANOSECONDS);
+                    COMPILED.increment();
+                    COMPILE_NANOS.add(nanos);
+                    DataLoader.LOGGER.debug("Compiled goal {} ({} requirements) in {} us", goal.id(), t.size(), nanos / 1000);
+                    template = t;
+                    tagFingerprint = fingerprint;
+                }
+                generation = gen;
+                return t;
+            }
+        }
+
+        private long tagFingerprint() {
+            if (tags.isEmpty()) return 0;
+            final Hasher hasher = Hashing.murmur3_128().newHasher();
+            for (TagKey<Item> tag : tags) {
+                hasher.putString(tag.id().toString(), StandardCharsets.UTF_8).putInt(0);
+                for (RegistryEntry<Item> entry : MultiverseHooks.itemTagHolders(tag))
+                    hasher.putString(MultiverseHooks.itemId(entry.value()).toString(), StandardCharsets.UTF_8).putInt(1);
+            }
+            return hasher.hash().asLong();
+        }
+    }
+
+    /**
+     * Parses goals in parallel during the prepare stage of the reload. Goals
+     * whose JSON didn't change since the previous reload are kept as is, so
+     * their compiled templates can be reused.
+     */
+    public static class DataLoader extends SinglePreparationResourceReloader<DataLoader.Prepared> {
+        private static volatile Snapshot current = Snapshot.EMPTY;
+        static final Logger LOGGER = LogUtils.getLogger();
 
         private static final Gson GSON = new Gson();
-        private static final Object LOCK = new Object();
+        private static final String DATA_TYPE = "speedrun_goals/item";
+        private static final LongAdder PARSED = AlphaBetaMetrics.counter("goals.parsed");
+        private static final LongAdder REUSED = AlphaBetaMetrics.counter("goals.reused");
 
-        public DataLoader() {
-            super(GSON, "speedrun_goals/item");
+        /**
+         * Goals of one reload. Never modified; replaced as a whole on reload,
+         * so readers need no lock.
+         * @param hashes JSON hash of each goal, to tell unchanged goals on the
+         *               next reload
+         */
+        private record Snapshot(int generation, Map<Identifier, ItemSpeedrun> goals, Map<Identifier, Long> hashes) {
+            static final Snapshot EMPTY = new Snapshot(0, Map.of(), Map.of());
         }
 
+        protected record Prepared(Map<Identifier, ItemSpeedrun> goals, Map<Identifier, Long> hashes) {}
+
+        private record Parsed(Identifier id, ItemSpeedrun goal, long hash) {}
+
         @Override
-        protected void apply(Map<Identifier, JsonElement> prepared, ResourceManager manager, Profiler profiler) {
-            Map<Identifier, ItemSpeedrun> m = new HashMap<>();
-            prepared.forEach((id, json) -> {
-                final JsonObject root = JsonHelper.asObject(json, id.toString());
-                ItemStack icon = iconFromJson(JsonHelper.getObject(root, "icon"));
-                Text display = Text.Serializer.fromJson(Objects.requireNonNull(root.get("display")));
-                //TagKey<Item> tagKey = TagKey.of(Registry.ITEM_KEY, new Identifier(JsonHelper.getString(root, "items")));
-                List<ItemPredicateProvider> providers = ItemPredicateProvider.fromJson(Objects.requireNonNull(root.get("items")));
-                m.put(id, new ItemSpeedrun(id, icon, display, providers));
-            });
-            synchronized (LOCK) {
-                currentData = m;
+        protected Prepared prepare(ResourceManager manager, Profiler profiler) {
+            final Map<Identifier, JsonElement> jsons = new HashMap<>();
+            JsonDataLoader.load(manager, DATA_TYPE, GSON, jsons);
+            final Snapshot snapshot = current;
+            final Map<Identifier, ItemSpeedrun> previous = snapshot.goals();
+            final Map<Identifier, Long> previousHashes = snapshot.hashes();
+
+            profiler.push("parse");
+            final Stopwatch stopwatch = Stopwatch.createStarted();
+            // Run on the worker pool of the reload, as parallel streams
+            // started from a ForkJoinPool thread stay in that pool
+            final List<Parsed> parsed = jsons.entrySet().parallelStream().map(e -> {
+                final Identifier id = e.getKey();
+                final long hash = Hashing.sha256().hashString(e.getValue().toString(), StandardCharsets.UTF_8).asLong();
+                final ItemSpeedrun old = previous.get(id);
+                if (old != null && Objects.equals(previousHashes.get(id), hash)) {
+                    REUSED.increment();
+                    return new Parsed(id, old, hash);
+                }
+                final long start = System.nanoTime();
+                final ItemSpeedrun goal;
+                try {
+                    goal = parse(id, e.getValue());
+                } catch (RuntimeException ex) {
+                    throw new JsonParseException("Failed to parse goal " + id, ex);
+                }
+                PARSED.increment();
+                LOGGER.debug("Parsed goal {} in {} us", id, (System.nanoTime() - start) / 1000);
+                return new Parsed(id, goal, hash);
+            }).toList();
+            profiler.pop();
+
+            final Map<Identifier, ItemSpeedrun> goals = new HashMap<>();
+            final Map<Identifier, Long> hashes = new HashMap<>();
+            int reused = 0;
+            for (Parsed p : parsed) {
+                goals.put(p.id(), p.goal());
+                hashes.put(p.id(), p.hash());
+                if (p.goal() == previous.get(p.id())) reused++;
             }
+            LOGGER.info("Loaded {} item speedrun goals ({} unchanged) in {} ms",
+                    goals.size(), reused, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+            return new Prepared(goals, hashes);
+        }
+
+        private static ItemSpeedrun parse(Identifier id, JsonElement json) {
+            final JsonObject root = JsonHelper.asObject(json, id.toString());
+            ItemStack icon = iconFromJson(JsonHelper.getObject(root, "icon"));
+            Text display = Text.Serializer.fromJson(Objects.requireNonNull(root.get("display")));
+            //TagKey<Item> tagKey = TagKey.of(Registry.ITEM_KEY, new Identifier(JsonHelper.getString(root, "items")));
+            List<ItemPredicateProvider> providers = ItemPredicateProvider.fromJson(Objects.requireNonNull(root.get("items")));
+            return new ItemSpeedrun(id, icon, display, providers);
         }
 
+        @Override
+        protected void apply(Prepared prepared, ResourceManager manager, Profiler profiler) {
+            // only applied on the server thread, one reload at a time
+            current = new Snapshot(current.generation() + 1, Map.copyOf(prepared.goals()), Map.copyOf(prepared.hashes()));
+            TEMPLATES.keySet().retainAll(prepared.goals().keySet());
+        }
+
+        /**
+         * @return a number that changes whenever goals are reloaded. Caches
+         * derived from goals may store it to tell when they are stale.
+         */
+        public static int getGeneration() {
+            return current.generation();
+        }
+
+        /**
+         * @return an immutable view of goals, which stays the same after a
+         * reload; see {@link #getGeneration()}
+         */
         public static Map<Identifier, ItemSpeedrun> getCurrentData() {
-            synchronized (LOCK) {
-                if (currentData == null) {
-                    LOGGER.warn("Trying to query current data which is not initialized");
-                    return Collections.emptyMap();
-                } else {
-                    return Collections.unmodifiableMap(currentData);
-                }
-            }
+            final Snapshot snapshot = current;
+            if (snapshot == Snapshot.EMPTY)
+                LOGGER.warn("Trying to query current data which is not initialized");
+            return snapshot.goals();
         }
 
         static ItemStack iconFromJson(JsonObject json) {
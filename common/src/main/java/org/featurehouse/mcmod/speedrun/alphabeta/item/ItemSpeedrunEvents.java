@@ -26,6 +26,7 @@ import dev.architectury.event.EventResult;
 import dev.architectury.event.events.client.ClientGuiEvent;
 import dev.architectury.event.events.client.ClientPlayerEvent;
 import dev.architectury.event.events.common.CommandRegistrationEvent;
+import dev.architectury.event.events.common.LifecycleEvent;
 import dev.architectury.event.events.common.PlayerEvent;
 import dev.architectury.event.events.common.TickEvent;
 import dev.architectury.networking.NetworkManager;
@@ -42,13 +43,11 @@ import net.minecraft.entity.player.PlayerInventory;
 import net.minecraft.item.ItemStack;
 import net.minecraft.resource.ResourceType;
 import net.minecraft.screen.ScreenHandlerType;
-import net.minecraft.server.MinecraftServer;
-import net.minecraft.server.PlayerManager;
 import net.minecraft.server.network.ServerPlayerEntity;
-import net.minecraft.sound.SoundEvents;
 import net.minecraft.text.Text;
 import net.minecraft.util.Formatting;
 import net.minecraft.util.Identifier;
+import net.minecraft.util.WorldSavePath;
 import org.apache.commons.lang3.mutable.MutableBoolean;
 import org.featurehouse.mcmod.speedrun.alphabeta.config.AlphabetSpeedrunConfigData;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.command.DraftManager;
@@ -56,12 +55,15 @@ import org.featurehouse.mcmod.speedrun.alphabeta.item.command.ItemSpeedrunComman
 import org.featurehouse.mcmod.speedrun.alphabeta.item.command.ItemSpeedrunCommands;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.difficulty.DefaultItemSpeedrunDifficulty;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.menu.ItemListViewMenu;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.RecordIoExecutor;
 import org.featurehouse.mcmod.speedrun.alphabeta.util.hooks.MultiverseHooks;
+import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Collectors;
@@ -102,7 +104,7 @@ public class ItemSpeedrunEvents {
         //PlayerEvent.PICKUP_ITEM_POST.register((player, itemEntity, stack) -> onItemPickup(player, stack));
         ReloadListenerRegistry.register(ResourceType.SERVER_DATA, new ItemSpeedrun.DataLoader());
         START_RUNNING_EVENT.register((player, record, resumeFrom) -> {
-            ItemSpeedrunCommandHandle.tryResumeInventory(player);
+            ItemSpeedrunCommandHandle.tryResumeInventory(player, record);
             final long currentTime = player.server.getOverworld().getTime();
             ItemSpeedrunEvents.tryFinishRecord(record, currentTime, player);
             if (AlphabetSpeedrunConfigData.getInstance().isItemsOnlyAvailableWhenRunning()) {
@@ -126,20 +128,29 @@ public class ItemSpeedrunEvents {
                                 ((ServerPlayerEntity) context.getPlayer())
                         )));
 
+        // Evaluate stacks collected by InventoryListener during this tick
+        TickEvent.PLAYER_POST.register(player -> {
+            if (player instanceof ServerPlayerEntity serverPlayer)
+                serverPlayer.alphabetSpeedrun$getInventoryUpdateBuffer().flush(serverPlayer);
+        });
+
         // Register ItemOnlyAvailableWhenRunning events
+        // Swept only when an inventory change or record transition requested it
         TickEvent.PLAYER_POST.register(player -> {
-            if (player.getWorld().isClient()) return;
+            if (!(player instanceof ServerPlayerEntity serverPlayer)) return;
+            if (!serverPlayer.alphabetSpeedrun$pollStampPurge()) return;
             if (AlphabetSpeedrunConfigData.getInstance().isItemsOnlyAvailableWhenRunning()) {
                 boolean dirty = false;
-                final ServerPlayerEntity serverPlayer = (ServerPlayerEntity) player;
+                final ItemRecordAccess record = serverPlayer.alphabetSpeedrun$getItemRecordAccess();
                 final PlayerInventory inv = player.getInventory();
-                for (int i = inv.size(); i >= 0; i--) {
+                for (int i = inv.size() - 1; i >= 0; i--) {
                     final ItemStack stack = inv.getStack(i);
+                    if (stack.isEmpty()) continue;
                     // Item should be discarded either:
                     // i. Running {abc}, while something is {def};
                     // ii. Not running, while something is {abc}.
-                    if (FireworkElytraUtils.stampsRecord(stack, serverPlayer.alphabetSpeedrun$getItemRecordAccess()))
-                        return;
+                    if (FireworkElytraUtils.stampsRecord(stack, record))
+                        continue;
                     inv.removeStack(i);
                     dirty = true;
                 }
@@ -173,34 +184,43 @@ public class ItemSpeedrunEvents {
         PlayerEvent.PLAYER_ADVANCEMENT.register((player, advancement) -> {
             ItemRecordAccess rec = player.alphabetSpeedrun$getItemRecordAccess();
             if (rec != null) {
-                List<SingleSpeedrunPredicate> predicates = rec.predicates();
-                for (int i = 0; i < predicates.size(); i++) {
-                    SingleSpeedrunPredicate predicate = predicates.get(i);
-                    if (predicate.fitsAdvancementGet(advancement)) {
-                        if (!COLLECTED_ONE_EVENT.invoker().onCollect(Either.right(advancement), predicate.getIcon(), player, rec).isFalse()) {
-                            long time = player.server.getOverworld().getTime();
-                            PlayerManager playerManager = player.server.getPlayerManager();
-                            setAndAnnounceCollectedOne(player, rec, predicate.getIcon(), null, i, time, playerManager);
-                        }
-                    }
+                final CollectionPipeline pipeline = CollectionPipeline.get();
+                for (int i : rec.template().advancementCandidates(advancement.getId())) {
+                    if (rec.isRequirementPassed(i)) continue;
+                    pipeline.enqueue(player, rec, i, Either.right(advancement));
                 }
             }
         });
 
+        LifecycleEvent.SERVER_STARTING.register(server -> GoalSnapshotStore.setRoot(
+                server.getSavePath(WorldSavePath.ROOT).resolve("alphabet-speedrun-records/goals")));
+        LifecycleEvent.SERVER_STARTING.register(server -> ProgressJournal.open(
+                server.getSavePath(WorldSavePath.ROOT).resolve("alphabet-speedrun-records/journal.bin")));
+        LifecycleEvent.SERVER_STOPPED.register(server -> GoalSnapshotStore.setRoot(null));
+        LifecycleEvent.SERVER_STOPPED.register(server -> ProgressJournal.close());
+        LifecycleEvent.SERVER_STOPPED.register(server -> CollectionPipeline.get().clear());
+        LifecycleEvent.SERVER_STOPPED.register(server -> RecordIoExecutor.discardServerThreadTasks());
+        LifecycleEvent.SERVER_STOPPED.register(server -> RecordSegmentStore.closeAll());
+
         TickEvent.SERVER_PRE.register(server -> {
             DraftManager.get().tick();
             MultiplayerRecords.tickInvitations();
         });
 
+        TickEvent.SERVER_POST.register(server -> CollectionPipeline.get().commit(server));
+        TickEvent.SERVER_POST.register(server -> RecordIoExecutor.drainServerThreadTasks());
+
         COLLECTED_ONE_EVENT.register((obj, icon, player, record) -> COLLECTED_ITEM_EVENT.invoker().onCollect(obj, player, record));
 
         FINISH_RECORD_EVENT.register((player, record, gameTime) -> {
-            // TODO change broadcast to partial (players not involved will not receive broadcasts)
             var mgr = player.server.getPlayerManager();
-            mgr.broadcast(ItemRecordMessages.itemCompleted(player, record, gameTime), false);
+            final RecordAudiences audiences = RecordAudiences.fromServer(player.server);
+            final Collection<ServerPlayerEntity> audience = audiences.audience(
+                    AlphabetSpeedrunConfigData.getInstance().getCompletionBroadcast(), record, player);
+            audiences.send(audience, ItemRecordMessages.itemCompleted(player, record, gameTime));
             if (!record.isCoop()) {
+                ItemRecordMessages.sendWinSound(Collections.singleton(player), audience);
                 player.alphabetSpeedrun$moveRecordToHistory();
-                ItemRecordMessages.sendWinSound(player, mgr);
             }
             else {
                 Collection<? extends ServerPlayerEntity> players;
@@ -208,13 +228,15 @@ public class ItemSpeedrunEvents {
                         .map(mgr::getPlayer)
                         .filter(Objects::nonNull)
                         .toList();
-                players.forEach(p -> {
-                    ItemRecordMessages.sendWinSound(p, mgr);
-                    p.alphabetSpeedrun$setItemRecordAccess(null);
-                });
+                ItemRecordMessages.sendWinSound(players, audience);
+                players.forEach(p -> p.alphabetSpeedrun$setItemRecordAccess(null));
             }
         });
 
+        // Keep RecordAudiences up-to-date. Registered after StopOnQuit, which may change the record.
+        PlayerEvent.PLAYER_JOIN.register(player -> RecordAudiences.fromServer(player.server).onJoin(player));
+        PlayerEvent.PLAYER_QUIT.register(player -> RecordAudiences.fromServer(player.server).onQuit(player));
+
         try {
             Class.forName(org.objectweb.asm.Type.getObjectType("org/featurehouse/mcmod/speedrun/alphabeta/item/ItemSpeedrunEvents").getClassName());
         } catch (ClassNotFoundException e) {
@@ -251,24 +273,28 @@ public class ItemSpeedrunEvents {
 
     public static void onItemPickup(ServerPlayerEntity player, ItemStack stack) {
         if (stack.isEmpty()) return;
-        final MinecraftServer server = player.server;
         final ItemRecordAccess record = player.alphabetSpeedrun$getItemRecordAccess();
         if (record != null) {
-            //final Identifier id = Registry.ITEM.getId(stack.getItem());
-            if (FireworkElytraUtils.bypassesItemCheck(stack)) return;
-            //List<ItemPredicate> requirements = record.requirements();
-            List<SingleSpeedrunPredicate> predicates = record.predicates();
-            for (int i = 0; i < predicates.size(); i++) {
-                if (record.isRequirementPassed(i)) continue;
-                SingleSpeedrunPredicate requirement = predicates.get(i);
-                if (requirement.testItemStack(stack)) {
-                    if (!COLLECTED_ONE_EVENT.invoker().onCollect(Either.left(stack), requirement.getIcon(), player, record).isFalse()) {
-                        final long time = server.getOverworld().getTime();
-                        final PlayerManager mgr = server.getPlayerManager();
-                        setAndAnnounceCollectedOne(player, record, requirement.getIcon(), stack, i, time, mgr);
-                        tryFinishRecord(record, time, player);
-                    }
-                }
+            evaluateStack(player, record, stack);
+        }
+    }
+
+    /**
+     * Tests {@code stack} against the uncollected requirements of {@code record},
+     * and queues the matched ones to {@link CollectionPipeline}.
+     */
+    public static void evaluateStack(ServerPlayerEntity player, ItemRecordAccess record, ItemStack stack) {
+        if (stack.isEmpty()) return;
+        //final Identifier id = Registry.ITEM.getId(stack.getItem());
+        if (FireworkElytraUtils.bypassesItemCheck(stack)) return;
+        final CollectionPipeline pipeline = CollectionPipeline.get();
+        //List<ItemPredicate> requirements = record.requirements();
+        List<SingleSpeedrunPredicate> predicates = record.predicates();
+        for (int i : record.itemIndex().candidates(stack.getItem())) {
+            if (record.isRequirementPassed(i) || pipeline.isQueued(record, i)) continue;
+            SingleSpeedrunPredicate requirement = predicates.get(i);
+            if (requirement.testItemStack(stack)) {
+                pipeline.enqueue(player, record, i, Either.left(stack));
             }
         }
     }
@@ -277,10 +303,26 @@ public class ItemSpeedrunEvents {
                                                   ItemStack displayedStack,
                                                   @Nullable ItemStack actualStack,
                                                   int index,
-                                                  long time, PlayerManager mgr) {
+                                                  long time, RecordAudiences audiences,
+                                                  Collection<? extends ServerPlayerEntity> audience) {
         record.setRequirementPassedTime(index, time);
-        mgr.broadcast(ItemRecordMessages.itemCollected(player, displayedStack, record, time, actualStack), false);
-        ItemRecordMessages.sendSound(mgr, SoundEvents.ENTITY_EXPERIENCE_ORB_PICKUP);
+        ProgressJournal.append(record.recordId(), index, time);
+        audiences.send(audience, ItemRecordMessages.itemCollected(player, displayedStack, record, time, actualStack));
+    }
+
+    /**
+     * Finishes a record whose last requirements were recovered from
+     * {@link ProgressJournal} while the player is loaded, once the player has
+     * joined.
+     */
+    @ApiStatus.Internal
+    public static void finishRecoveredRecord(ServerPlayerEntity player, ItemRecordAccess record) {
+        if (record.isFinished() || !record.isAllRequirementsPassed()) return;
+        final long time = Arrays.stream(record.collected()).max().orElse(record.startTime());
+        player.server.execute(() -> {
+            if (player.alphabetSpeedrun$getItemRecordAccess() == record)
+                tryFinishRecord(record, time, player);
+        });
     }
 
     static void tryFinishRecord(ItemRecordAccess record, long time, ServerPlayerEntity player) {
@@ -22,6 +22,7 @@ import com.google.common.collect.Maps;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
@@ -39,24 +40,29 @@ import org.featurehouse.mcmod.speedrun.alphabeta.item.command.Draft;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.command.ItemSpeedrunCommandHandle;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.difficulty.DefaultItemSpeedrunDifficulty;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.difficulty.ItemSpeedrunDifficulty;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.JsonYYDS;
 import org.featurehouse.mcmod.speedrun.alphabeta.util.MixinSensitive;
 import org.featurehouse.mcmod.speedrun.alphabeta.util.hooks.MultiverseHooks;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.qj5.JsonReader;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.qj5.JsonWriter;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.stream.Collectors;
 
 @MixinSensitive
 public final class ItemSpeedrunRecord implements ItemRecordAccess {
-    private final Identifier goalId;
+    private final GoalTemplate template;
     private final UUID recordId;
-    private final List<SingleSpeedrunPredicate> predicates;
-    private final long[] collected;
+    private final RecordProgress progress;
     private final long startTime;
     private long finishTime;
     private long lastQuitTime;
     private long vacantTime;
     private final ItemSpeedrunDifficulty difficulty;
     private final Map<UUID, UUID> mates;
+    private long version;
+    private final RecordSnapshot.TextCache snapshotTextCache = new RecordSnapshot.TextCache();
 
     public ItemSpeedrunRecord(
             Identifier goalId,
@@ -65,14 +71,17 @@ public final class ItemSpeedrunRecord implements ItemRecordAccess {
             long startTime,
             ItemSpeedrunDifficulty difficulty
     ) {
-        this(goalId, recordId, predicates, initLA(predicates.size()),
-                startTime, -1, -1, 0, difficulty, Maps.newHashMap());
+        this(GoalTemplate.of(goalId, predicates), recordId, startTime, difficulty);
     }
 
-    private static long[] initLA(int size) {
-        long[] l = new long[size];
-        Arrays.fill(l, -1);
-        return l;
+    public ItemSpeedrunRecord(
+            GoalTemplate template,
+            UUID recordId,
+            long startTime,
+            ItemSpeedrunDifficulty difficulty
+    ) {
+        this(template, recordId, new RecordProgress(template.size()),
+                startTime, -1, -1, 0, difficulty, Maps.newHashMap());
     }
 
     ItemSpeedrunRecord(
@@ -87,10 +96,39 @@ public final class ItemSpeedrunRecord implements ItemRecordAccess {
             ItemSpeedrunDifficulty difficulty,
             Map<UUID, UUID> mates
     ) {
-        this.goalId = goalId;
+        this(GoalTemplate.of(goalId, predicates), recordId, new RecordProgress(collected),
+                startTime, finishTime, lastQuitTime, vacantTime, difficulty, mates);
+    }
+
+    ItemSpeedrunRecord(
+            GoalTemplate template,
+            UUID recordId,
+            /*Mutable*/long[] collected,
+            long startTime,
+            long finishTime,
+            long lastQuitTime,
+            long vacantTime,
+            ItemSpeedrunDifficulty difficulty,
+            Map<UUID, UUID> mates
+    ) {
+        this(template, recordId, new RecordProgress(collected),
+                startTime, finishTime, lastQuitTime, vacantTime, difficulty, mates);
+    }
+
+    private ItemSpeedrunRecord(
+            GoalTemplate template,
+            UUID recordId,
+            RecordProgress progress,
+            long startTime,
+            long finishTime,
+            long lastQuitTime,
+            long vacantTime,
+            ItemSpeedrunDifficulty difficulty,
+            Map<UUID, UUID> mates
+    ) {
+        this.template = template;
         this.recordId = recordId;
-        this.predicates = predicates;
-        this.collected = collected;
+        this.progress = progress;
         this.startTime = startTime;
         this.finishTime = finishTime;
         this.lastQuitTime = lastQuitTime;
@@ -101,7 +139,7 @@ public final class ItemSpeedrunRecord implements ItemRecordAccess {
 
     public List<ItemStack> displayedStacks() {
         //return displayedStacks.stream().map(ItemStack::copy).toList();
-        return predicates.stream().map(SingleSpeedrunPredicate::getIcon).toList();
+        return template.copyIcons();
     }
 
     public boolean tryMarkDone(long currentOverworldTime) {
@@ -113,7 +151,7 @@ public final class ItemSpeedrunRecord implements ItemRecordAccess {
     }
 
     public boolean isAllRequirementsPassed() {
-        return Arrays.stream(collected).allMatch(l -> l >= 0);
+        return progress.isComplete();
     }
 
     public boolean isFinished() {
@@ -121,20 +159,17 @@ public final class ItemSpeedrunRecord implements ItemRecordAccess {
     }
 
     public boolean isRequirementPassed(int index) {
-        return collected[index] >= 0;
+        return progress.isPassed(index);
     }
 
     public void setRequirementPassedTime(int index, long time) {
-        collected[index] = time;
+        progress.setPassedTime(index, time);
+        version++;
     }
 
     public int getCollectedCount() {
-        if (isFinished()) return predicates.size();
-        int c = 0;
-        for (long l : collected) {
-            if (l > 0) c++;
-        }
-        return c;
+        if (isFinished()) return template.size();
+        return progress.passedCount();
     }
 
     // Serializations START
@@ -143,15 +178,20 @@ public final class ItemSpeedrunRecord implements ItemRecordAccess {
         obj.addProperty("goal_id", goalId().toString());
         obj.addProperty("record_id", recordId().toString());
         JsonArray col = new JsonArray();
-        Arrays.stream(collected()).forEach(col::add);
+        Arrays.stream(progress.timestamps()).forEach(col::add);
         obj.add("collected", col);
         obj.addProperty("start_time", startTime());
         //obj.addProperty("finish_time", finishTime == null ? -1 : finishTime);
         obj.addProperty("finish_time", finishTime);
-        JsonArray dps = new JsonArray();
-        predicates.forEach(p -> dps.add(p.serialize()));
-        //displayedStacks.forEach(i -> dps.add(stackToJson(i)));
-        obj.add("predicates", dps);
+        if (GoalSnapshotStore.isStored(template.contentHash())) {
+            obj.addProperty("predicates_ref", GoalSnapshotStore.hashToString(template.contentHash()));
+            obj.addProperty("requirement_count", template.size());
+        } else {
+            JsonArray dps = new JsonArray();
+            predicates().forEach(p -> dps.add(p.serialize()));
+            //displayedStacks.forEach(i -> dps.add(stackToJson(i)));
+            obj.add("predicates", dps);
+        }
         obj.addProperty("last_quit_time", lastQuitTime);
         obj.addProperty("vacant_time", vacantTime);
         obj.addProperty("difficulty", difficulty.getId().toString());
@@ -167,24 +207,33 @@ public final class ItemSpeedrunRecord implements ItemRecordAccess {
         UUID recordId = resetUuid ? UUID.randomUUID() : UUID.fromString(JsonHelper.getString(root, "record_id"));
         JsonArray arr;
 
-        List<SingleSpeedrunPredicate> itemPredicates;
-        if (JsonHelper.hasArray(root, "displayed_stacks")) {
-            // schema: v3.0.x
-            // assert: only OfItemPredicate is used
-            arr = JsonHelper.getArray(root, "requirements");
-            final JsonArray dps0 = JsonHelper.getArray(root, "displayed_stacks");
-            int minSize = Math.min(arr.size(), dps0.size());
-            itemPredicates = new ArrayList<>(minSize);
-            for (int i = 0; i < minSize; i++) {
-                JsonElement r0 = arr.get(i), d0 = dps0.get(i);
-                ItemStack stack = jsonToStack(JsonHelper.asObject(d0, "item_legacy"));
-                ItemPredicate predicate = ItemPredicate.fromJson(r0);
-                itemPredicates.add(new SingleSpeedrunPredicate.OfItemPredicate(predicate, stack));
+        final String predicatesRef = JsonHelper.getString(root, "predicates_ref", null);
+        // see GoalSnapshotStore
+        GoalTemplate template = predicatesRef == null ? null :
+                GoalSnapshotStore.get(goalId, GoalSnapshotStore.hashFromString(predicatesRef));
+        if (template == null) {
+            if (predicatesRef != null && !JsonHelper.hasArray(root, "predicates")) {
+                template = GoalSnapshotStore.resolve(goalId, GoalSnapshotStore.hashFromString(predicatesRef));
+            } else if (JsonHelper.hasArray(root, "displayed_stacks")) {
+                // schema: v3.0.x
+                // assert: only OfItemPredicate is used
+                arr = JsonHelper.getArray(root, "requirements");
+                final JsonArray dps0 = JsonHelper.getArray(root, "displayed_stacks");
+                int minSize = Math.min(arr.size(), dps0.size());
+                List<SingleSpeedrunPredicate> itemPredicates = new ArrayList<>(minSize);
+                for (int i = 0; i < minSize; i++) {
+                    JsonElement r0 = arr.get(i), d0 = dps0.get(i);
+                    ItemStack stack = jsonToStack(JsonHelper.asObject(d0, "item_legacy"));
+                    ItemPredicate predicate = ItemPredicate.fromJson(r0);
+                    itemPredicates.add(new SingleSpeedrunPredicate.OfItemPredicate(predicate, stack));
+                }
+                template = GoalTemplate.of(goalId, itemPredicates);
+            } else {
+                arr = JsonHelper.getArray(root, "predicates");
+                List<SingleSpeedrunPredicate> itemPredicates = new ArrayList<>(arr.size());
+                arr.forEach(e -> itemPredicates.add(SingleSpeedrunPredicate.deserialize(JsonHelper.asObject(e, "predicate"))));
+                template = GoalTemplate.of(goalId, itemPredicates);
             }
-        } else {
-            arr = JsonHelper.getArray(root, "predicates");
-            itemPredicates = new ArrayList<>(arr.size());
-            arr.forEach(e -> itemPredicates.add(SingleSpeedrunPredicate.deserialize(JsonHelper.asObject(e, "predicate"))));
         }
 
 
@@ -192,7 +241,11 @@ public final class ItemSpeedrunRecord implements ItemRecordAccess {
         long[] collected = new long[arr.size()];
         for (int i = 0; i < arr.size(); i++)
             collected[i] = (JsonHelper.asLong(arr.get(i), "collected[" + i + ']'));
-        collected = Arrays.copyOf(collected, itemPredicates.size());
+        if (collected.length != template.size()) {
+            final int size = collected.length;
+            collected = Arrays.copyOf(collected, template.size());
+            for (int i = size; i < collected.length; i++) collected[i] = -1;
+        }
         long startTime = JsonHelper.getLong(root, "start_time");
         long finishTime = JsonHelper.getLong(root, "finish_time", -1);
         long lastQuitTime = JsonHelper.getLong(root, "last_quit_time", -1);
@@ -206,10 +259,150 @@ public final class ItemSpeedrunRecord implements ItemRecordAccess {
         }
 
         ItemSpeedrunDifficulty difficulty1 = DefaultItemSpeedrunDifficulty.getDifficulty(new Identifier(JsonHelper.getString(root, "difficulty", "speedabc:empty")));
-        return new ItemSpeedrunRecord(goalId, recordId, itemPredicates, collected,
+        return new ItemSpeedrunRecord(template, recordId, collected,
                 startTime, finishTime, lastQuitTime, vacantTime, difficulty1, mates);
     }
 
+    /**
+     * Streaming form of {@link #toJson()}, writing the same object.
+     */
+    public void writeToJson(JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("goal_id").value(goalId().toString());
+        writer.name("record_id").value(recordId().toString());
+        writer.name("collected").beginArray();
+        for (long t : progress.timestamps()) writer.value(t);
+        writer.endArray();
+        writer.name("start_time").value(startTime());
+        writer.name("finish_time").value(finishTime);
+        if (GoalSnapshotStore.isStored(template.contentHash())) {
+            writer.name("predicates_ref").value(GoalSnapshotStore.hashToString(template.contentHash()));
+            writer.name("requirement_count").value(template.size());
+        } else {
+            writer.name("predicates").beginArray();
+            for (SingleSpeedrunPredicate p : predicates()) JsonYYDS.writeTree(writer, p.serialize());
+            writer.endArray();
+        }
+        writer.name("last_quit_time").value(lastQuitTime);
+        writer.name("vacant_time").value(vacantTime);
+        writer.name("difficulty").value(difficulty.getId().toString());
+        writer.name("pvp_mates_v2").beginObject();
+        for (Map.Entry<UUID, UUID> e : mates.entrySet())
+            writer.name(e.getKey().toString()).value(e.getValue().toString());
+        writer.endObject();
+        writer.endObject();
+    }
+
+    /**
+     * Streaming form of {@link #fromJson(JsonElement, boolean)}. Only the
+     * requirements themselves are read as trees.
+     */
+    public static ItemSpeedrunRecord readFromJson(JsonReader reader, boolean resetUuid) throws IOException {
+        Identifier goalId = null;
+        UUID recordId = null;
+        long[] collected = new long[0];
+        long startTime = Long.MIN_VALUE, finishTime = -1, lastQuitTime = -1, vacantTime = 0;
+        String predicatesRef = null;
+        GoalTemplate template = null;
+        List<SingleSpeedrunPredicate> predicates = null;
+        List<JsonElement> requirements = null, displayedStacks = null;  // schema: v3.0.x
+        Identifier difficulty = new Identifier("speedabc:empty");
+        final Map<UUID, UUID> mates = Maps.newHashMap();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "goal_id" -> goalId = new Identifier(reader.nextString());
+                case "record_id" -> recordId = UUID.fromString(reader.nextString());
+                case "collected" -> {
+                    long[] arr = new long[16];
+                    int size = 0;
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        if (size == arr.length) arr = Arrays.copyOf(arr, size * 2);
+                        arr[size++] = reader.nextLong();
+                    }
+                    reader.endArray();
+                    collected = Arrays.copyOf(arr, size);
+                }
+                case "start_time" -> startTime = reader.nextLong();
+                case "finish_time" -> finishTime = reader.nextLong();
+                case "last_quit_time" -> lastQuitTime = reader.nextLong();
+                case "vacant_time" -> vacantTime = reader.nextLong();
+                case "difficulty" -> difficulty = new Identifier(reader.nextString());
+                case "predicates_ref" -> predicatesRef = reader.nextString();
+                case "predicates" -> {
+                    // also written alongside the reference by older versions
+                    if (template == null && predicatesRef != null && goalId != null)
+                        template = GoalSnapshotStore.get(goalId, GoalSnapshotStore.hashFromString(predicatesRef));
+                    if (template != null) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    predicates = new ArrayList<>();
+                    reader.beginArray();
+                    while (reader.hasNext())
+                        predicates.add(SingleSpeedrunPredicate.deserialize(JsonHelper.asObject(JsonYYDS.readTree(reader), "predicate")));
+                    reader.endArray();
+                }
+                case "requirements" -> requirements = readElements(reader);
+                case "displayed_stacks" -> displayedStacks = readElements(reader);
+                case "pvp_mates_v2" -> {
+                    reader.beginObject();
+                    while (reader.hasNext())
+                        mates.put(UUID.fromString(reader.nextName()), UUID.fromString(reader.nextString()));
+                    reader.endObject();
+                }
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (goalId == null) throw new JsonParseException("Missing goal_id");
+        if (startTime == Long.MIN_VALUE) throw new JsonParseException("Missing start_time");
+        if (resetUuid) recordId = UUID.randomUUID();
+        else if (recordId == null) throw new JsonParseException("Missing record_id");
+
+        // see GoalSnapshotStore
+        if (template == null && predicatesRef != null)
+            template = GoalSnapshotStore.get(goalId, GoalSnapshotStore.hashFromString(predicatesRef));
+        if (template == null) {
+            if (predicatesRef != null && predicates == null) {
+                template = GoalSnapshotStore.resolve(goalId, GoalSnapshotStore.hashFromString(predicatesRef));
+            } else if (displayedStacks != null) {
+                // assert: only OfItemPredicate is used
+                if (requirements == null) throw new JsonParseException("Missing requirements");
+                int minSize = Math.min(requirements.size(), displayedStacks.size());
+                List<SingleSpeedrunPredicate> itemPredicates = new ArrayList<>(minSize);
+                for (int i = 0; i < minSize; i++) {
+                    ItemStack stack = jsonToStack(JsonHelper.asObject(displayedStacks.get(i), "item_legacy"));
+                    itemPredicates.add(new SingleSpeedrunPredicate.OfItemPredicate(ItemPredicate.fromJson(requirements.get(i)), stack));
+                }
+                template = GoalTemplate.of(goalId, itemPredicates);
+            } else if (predicates != null) {
+                template = GoalTemplate.of(goalId, predicates);
+            } else {
+                throw new JsonParseException("Missing predicates");
+            }
+        }
+
+        if (collected.length != template.size()) {
+            final int size = collected.length;
+            collected = Arrays.copyOf(collected, template.size());
+            for (int i = size; i < collected.length; i++) collected[i] = -1;
+        }
+        return new ItemSpeedrunRecord(template, recordId, collected, startTime, finishTime, lastQuitTime,
+                vacantTime, DefaultItemSpeedrunDifficulty.getDifficulty(difficulty), mates);
+    }
+
+    private static List<JsonElement> readElements(JsonReader reader) throws IOException {
+        List<JsonElement> list = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) list.add(JsonYYDS.readTree(reader));
+        reader.endArray();
+        return list;
+    }
+
     static JsonObject stackToJson(ItemStack stack) {
         JsonObject obj = new JsonObject();
         obj.addProperty("item", MultiverseHooks.itemId(stack.getItem()).toString());
@@ -249,19 +442,27 @@ public final class ItemSpeedrunRecord implements ItemRecordAccess {
     }
 
     public Identifier goalId() {
-        return goalId;
+        return template.goalId();
     }
 
     public UUID recordId() {
         return recordId;
     }
 
+    public GoalTemplate template() {
+        return template;
+    }
+
     public List<SingleSpeedrunPredicate> predicates() {
-        return predicates;
+        return template.predicates();
+    }
+
+    public ItemPredicateIndex itemIndex() {
+        return template.itemIndex();
     }
 
     public long[] collected() {
-        return collected;
+        return progress.timestamps().clone();
     }
 
     public long startTime() {
@@ -274,6 +475,7 @@ public final class ItemSpeedrunRecord implements ItemRecordAccess {
 
     public void setFinishTime(long finishTime) {
         this.finishTime = finishTime;
+        version++;
     }
 
     public long lastQuitTime() {
@@ -282,6 +484,7 @@ public final class ItemSpeedrunRecord implements ItemRecordAccess {
 
     public void setLastQuitTime(long lastQuitTime) {
         this.lastQuitTime = lastQuitTime;
+        version++;
     }
 
     public long vacantTime() {
@@ -290,12 +493,23 @@ public final class ItemSpeedrunRecord implements ItemRecordAccess {
 
     public void setVacantTime(long vacantTime) {
         this.vacantTime = vacantTime;
+        version++;
     }
 
     public ItemSpeedrunDifficulty difficulty() {
         return difficulty;
     }
 
+    @Override
+    public long version() {
+        return version;
+    }
+
+    @Override
+    public RecordSnapshot.TextCache snapshotTextCache() {
+        return snapshotTextCache;
+    }
+
     // Coop compatibility
 
 
@@ -331,8 +545,8 @@ public final class ItemSpeedrunRecord implements ItemRecordAccess {
                 final ItemSpeedrunRecord rec = (ItemSpeedrunRecord) acc;
                 final UUID that = rec.recordId();
                 // Trust each other
-                this.mates.put(player.getUuid(), that);
-                rec.mates.put(hostId, this.recordId());
+                this.putMate(player.getUuid(), that);
+                rec.putMate(hostId, this.recordId());
             }
         }
     }
@@ -343,7 +557,16 @@ public final class ItemSpeedrunRecord implements ItemRecordAccess {
 
     @Override
     public void addTrust(UUID other) {
-        this.mates.put(other, Util.NIL_UUID);
+        putMate(other, Util.NIL_UUID);
+    }
+
+    /**
+     * Modifications to {@link #mates()} should go through this, which keeps
+     * {@link #version()} up-to-date.
+     */
+    public void putMate(UUID player, UUID recordId) {
+        this.mates.put(player, recordId);
+        version++;
     }
 
     // Object methods //
@@ -357,28 +580,28 @@ public final class ItemSpeedrunRecord implements ItemRecordAccess {
                 finishTime == that.finishTime &&
                 lastQuitTime == that.lastQuitTime &&
                 vacantTime == that.vacantTime &&
-                Objects.equals(goalId, that.goalId) &&
+                Objects.equals(goalId(), that.goalId()) &&
                 Objects.equals(recordId, that.recordId) &&
-                Objects.equals(predicates, that.predicates) &&
-                Arrays.equals(collected, that.collected) &&
+                Objects.equals(predicates(), that.predicates()) &&
+                Arrays.equals(progress.timestamps(), that.progress.timestamps()) &&
                 Objects.equals(difficulty, that.difficulty) &&
                 Objects.equals(mates, that.mates);
     }
 
     @Override
     public int hashCode() {
-        int result = Objects.hash(goalId, recordId, predicates, startTime, finishTime, lastQuitTime, vacantTime, difficulty, mates);
-        result = 31 * result + Arrays.hashCode(collected);
+        int result = Objects.hash(goalId(), recordId, predicates(), startTime, finishTime, lastQuitTime, vacantTime, difficulty, mates);
+        result = 31 * result + Arrays.hashCode(progress.timestamps());
         return result;
     }
 
     @Override
     public String toString() {
         return "ItemSpeedrunRecord{" +
-                "goalId=" + goalId +
+                "goalId=" + goalId() +
                 ", recordId=" + recordId +
-                ", predicates=" + predicates +
-                ", collected=" + Arrays.toString(collected) +
+                ", predicates=" + predicates() +
+                ", collected=" + Arrays.toString(progress.timestamps()) +
                 ", startTime=" + startTime +
                 ", finishTime=" + finishTime +
                 ", lastQuitTime=" + lastQuitTime +
@@ -0,0 +1,153 @@
+/*
+ * This file is part of αβspeedrun.
+ * Copyright (C) 2022 Pigeonia Featurehouse
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.featurehouse.mcmod.speedrun.alphabeta.item;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.predicate.NbtPredicate;
+import net.minecraft.predicate.item.ItemPredicate;
+import net.minecraft.registry.tag.TagKey;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.JsonHelper;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.hooks.MultiverseHooks;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * <p>A specialized form of {@link ItemPredicate}, compiled once when the
+ * requirement is created.</p>
+ *
+ * <p>Most requirements only check the item or its tag, while
+ * {@link ItemPredicate#test(ItemStack)} goes through count, durability,
+ * enchantments, potion and NBT each time.</p>
+ */
+@ApiStatus.Internal
+public sealed interface ItemStackMatcher extends Predicate<ItemStack> {
+    @Override
+    boolean test(ItemStack stack);
+
+    /**
+     * @return all items this matcher may accept, or {@code null} if unknown
+     * @see SingleSpeedrunPredicate#candidateItems()
+     */
+    @Nullable
+    default Set<Item> candidateItems() {
+        return null;
+    }
+
+    default boolean isCountSensitive() {
+        return false;
+    }
+
+    static ItemStackMatcher compile(ItemPredicate predicate) {
+        final JsonElement json = predicate.toJson();
+        if (!json.isJsonObject()) return new Generic(predicate); // ItemPredicate.ANY
+
+        final JsonObject obj = json.getAsJsonObject();
+        // Keys other than these are either absent or dummy (JsonNull)
+        for (Map.Entry<String, JsonElement> e : obj.entrySet()) {
+            if (e.getValue().isJsonNull()) continue;
+            switch (e.getKey()) {
+                case "items", "tag", "nbt" -> {}
+                default -> { return new Generic(predicate); }
+            }
+        }
+
+        final boolean hasItems = JsonHelper.hasArray(obj, "items");
+        final boolean hasTag = JsonHelper.hasString(obj, "tag");
+        final boolean hasNbt = obj.has("nbt") && !obj.get("nbt").isJsonNull();
+
+        if (hasItems && !hasTag) {
+            Set<Item> items = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (JsonElement e : JsonHelper.getArray(obj, "items")) {
+                items.add(JsonHelper.asItem(e, "item"));
+            }
+            items = Collections.unmodifiableSet(items);
+            if (hasNbt) return new ItemsWithNbt(items, NbtPredicate.fromJson(obj.get("nbt")));
+            if (items.size() == 1) return new SingleItem(items.iterator().next());
+            return new AnyOfItems(items);
+        } else if (hasTag && !hasItems && !hasNbt) {
+            return new InTag(TagKey.of(MultiverseHooks.itemKey(), new Identifier(JsonHelper.getString(obj, "tag"))));
+        }
+        return new Generic(predicate);
+    }
+
+    record SingleItem(Item item) implements ItemStackMatcher {
+        @Override
+        public boolean test(ItemStack stack) {
+            return stack.isOf(item);
+        }
+
+        @Override
+        public Set<Item> candidateItems() {
+            return Collections.singleton(item);
+        }
+    }
+
+    record AnyOfItems(Set<Item> items) implements ItemStackMatcher {
+        @Override
+        public boolean test(ItemStack stack) {
+            return items.contains(stack.getItem());
+        }
+
+        @Override
+        public Set<Item> candidateItems() {
+            return items;
+        }
+    }
+
+    // Tags are not indexed, as they may be rebound on reload.
+    record InTag(TagKey<Item> tag) implements ItemStackMatcher {
+        @Override
+        public boolean test(ItemStack stack) {
+            return stack.isIn(tag);
+        }
+    }
+
+    record ItemsWithNbt(Set<Item> items, NbtPredicate nbt) implements ItemStackMatcher {
+        @Override
+        public boolean test(ItemStack stack) {
+            return items.contains(stack.getItem()) && nbt.test(stack);
+        }
+
+        @Override
+        public Set<Item> candidateItems() {
+            return items;
+        }
+    }
+
+    record Generic(ItemPredicate predicate) implements ItemStackMatcher {
+        @Override
+        public boolean test(ItemStack stack) {
+            return predicate.test(stack);
+        }
+
+        @Override
+        public boolean isCountSensitive() {
+            final JsonElement json = predicate.toJson();
+            return json.isJsonObject() && json.getAsJsonObject().has("count")
+                    && !json.getAsJsonObject().get("count").isJsonNull();
+        }
+    }
+}
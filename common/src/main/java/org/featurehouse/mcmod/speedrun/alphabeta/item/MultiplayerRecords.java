@@ -73,7 +73,7 @@ public class MultiplayerRecords {
 
         final UUID uuid = rec.recordId();
         final Invitation invitation = new Invitation(self.getUuid(), uuid,
-                RecordSnapshot.fromRecord(rec, self.server.getOverworld().getTime()).asText(),
+                RecordSnapshot.asText(rec, self.server.getOverworld().getTime()),
                 rec.isCoop() ? Invitation.COOP : Invitation.PVP);
         INVITATIONS.computeIfAbsent(uuid, u0 -> Sets.newHashSet())
                 .addAll(players.stream()
@@ -122,9 +122,8 @@ public class MultiplayerRecords {
                 .ifPresentOrElse(c -> {
                     if (accept) {
                         //draft.getPlayers().add(invited.getUuid());
-                        RecordSnapshot record1 = RecordSnapshot.fromRecord(coopRecord, host.server.getOverworld().getTime());
                         invited.sendMessage(Text.translatable("command.speedrun.alphabet.start",
-                                record1.asText()));
+                                RecordSnapshot.asText(coopRecord, host.server.getOverworld().getTime())));
                         ItemSpeedrunEvents.START_RUNNING_EVENT.invoker().onStartRunning(invited, coopRecord, ItemSpeedrunEvents.StartRunning.JOIN_COOP);
                         coopRecord.onStart(invited);
                         // TODO: welcome invited player
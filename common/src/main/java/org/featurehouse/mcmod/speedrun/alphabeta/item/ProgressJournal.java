@@ -0,0 +1,258 @@
+/*
+ * This file is part of αβspeedrun.
+ * Copyright (C) 2022 Pigeonia Featurehouse
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.featurehouse.mcmod.speedrun.alphabeta.item;
+
+import com.mojang.logging.LogUtils;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.AlphaBetaMetrics;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Append-only journal of collected requirements, so that progress made
+ * since the last save survives a crash.</p>
+ *
+ * <p>Events are queued on the server thread and written by a background
+ * thread, which syncs the file at most once per {@link #GROUP_COMMIT_MILLIS}.
+ * On server start the journal is read back, and its events are applied to
+ * records as they are loaded from player data or coop storage. Once player
+ * data and coop records are saved, the journal is
+ * {@linkplain #checkpoint() truncated}, keeping events not applied yet.</p>
+ *
+ * <p>Each frame is {@code [uuid][int index][long time][int crc32]}. A torn
+ * or corrupt frame ends the journal.</p>
+ */
+@ApiStatus.Internal
+public final class ProgressJournal {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    static final long GROUP_COMMIT_MILLIS = 50;
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+    private static final int FRAME_SIZE = 16 + 4 + 8 + 4;
+    private static final Object CHECKPOINT = new Object(), CLOSE = new Object();
+
+    private static final LongAdder EVENTS = AlphaBetaMetrics.counter("journal.events");
+    private static final LongAdder COMMITS = AlphaBetaMetrics.counter("journal.commits");
+    private static final LongAdder BYTES = AlphaBetaMetrics.counter("journal.bytes_written");
+    private static final LongAdder REPLAYED = AlphaBetaMetrics.counter("journal.events_replayed");
+
+    private static volatile @Nullable ProgressJournal instance;
+
+    private final FileChannel channel;
+    private final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    // read on open, not applied to a loaded record yet
+    private final Map<UUID, List<Event>> unapplied;
+    private final Thread writer;
+
+    private record Event(UUID recordId, int index, long time) {}
+
+    private ProgressJournal(FileChannel channel, Map<UUID, List<Event>> unapplied) {
+        this.channel = channel;
+        this.unapplied = unapplied;
+        this.writer = new Thread(this::run, "ABS-Journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * @return the journal of the running server, or {@code null} if there is
+     * no server or the journal failed to open
+     */
+    public static @Nullable ProgressJournal get() {
+        return instance;
+    }
+
+    static void open(Path path) {
+        close();
+        try {
+            Files.createDirectories(path.getParent());
+            final Map<UUID, List<Event>> events = read(path);
+            final FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            // drop the torn tail, if any
+            ch.truncate(events.values().stream().mapToLong(List::size).sum() * FRAME_SIZE);
+            ch.position(ch.size());
+            instance = new ProgressJournal(ch, events);
+            if (!events.isEmpty())
+                LOGGER.info("Progress journal has unsaved progress of {} records", events.size());
+        } catch (IOException e) {
+            LOGGER.error("Failed to open progress journal {}; progress since the last save won't survive a crash", path, e);
+        }
+    }
+
+    static void close() {
+        final ProgressJournal journal = instance;
+        if (journal == null) return;
+        instance = null;
+        journal.queue.add(CLOSE);
+        try {
+            journal.writer.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (journal.writer.isAlive())
+            LOGGER.warn("Progress journal is not closed in {} ms", CLOSE_TIMEOUT_MILLIS);
+    }
+
+    static void append(UUID recordId, int index, long time) {
+        final ProgressJournal journal = instance;
+        if (journal != null)
+            journal.queue.add(new Event(recordId, index, time));
+    }
+
+    /**
+     * Truncates the journal. Call only after every online player and every
+     * changed coop record has been saved.
+     */
+    public void checkpoint() {
+        queue.add(CHECKPOINT);
+    }
+
+    /**
+     * Applies journaled events of the record that did not reach its last save.
+     * The record may have all requirements passed afterwards, but not be
+     * finished; see {@link ItemSpeedrunEvents#finishRecoveredRecord}.
+     */
+    public void replay(ItemRecordAccess record) {
+        final List<Event> events;
+        synchronized (unapplied) {
+            if (unapplied.isEmpty()) return;
+            events = unapplied.remove(record.recordId());
+        }
+        if (events == null) return;
+        for (Event e : events) {
+            if (e.index() < record.template().size() && !record.isRequirementPassed(e.index()))
+                record.setRequirementPassedTime(e.index(), e.time());
+        }
+        REPLAYED.add(events.size());
+        LOGGER.info("Recovered {} collections of record {} from progress journal", events.size(), record.recordId());
+    }
+
+    private void run() {
+        final List<Object> batch = new ArrayList<>();
+        boolean closing = false;
+        while (!closing) {
+            try {
+                batch.add(queue.take());
+                // let events of the next ticks join this commit
+                TimeUnit.MILLISECONDS.sleep(GROUP_COMMIT_MILLIS);
+            } catch (InterruptedException e) {
+                closing = true;
+            }
+            queue.drainTo(batch);
+            // even if writing fails
+            closing |= batch.contains(CLOSE);
+            try {
+                write(batch);
+            } catch (IOException e) {
+                LOGGER.error("Failed to write progress journal", e);
+            }
+            batch.clear();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.error("Failed to close progress journal", e);
+        }
+    }
+
+    private void write(List<Object> batch) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(batch.size() * FRAME_SIZE);
+        boolean written = false;
+        for (Object o : batch) {
+            if (o instanceof Event e) {
+                putFrame(buf, e);
+                EVENTS.increment();
+            } else if (o == CHECKPOINT) {
+                // events queued before the checkpoint are saved
+                buf.clear();
+                channel.truncate(0);
+                channel.position(0);
+                writeUnapplied();
+                written = true;
+            }
+        }
+        buf.flip();
+        if (buf.hasRemaining()) {
+            BYTES.add(buf.remaining());
+            while (buf.hasRemaining())
+                channel.write(buf);
+            written = true;
+        }
+        if (written) {
+            channel.force(false);
+            COMMITS.increment();
+        }
+    }
+
+    private void writeUnapplied() throws IOException {
+        final ByteBuffer buf;
+        synchronized (unapplied) {
+            if (unapplied.isEmpty()) return;
+            buf = ByteBuffer.allocate(unapplied.values().stream().mapToInt(List::size).sum() * FRAME_SIZE);
+            unapplied.values().forEach(events -> events.forEach(e -> putFrame(buf, e)));
+        }
+        buf.flip();
+        BYTES.add(buf.remaining());
+        while (buf.hasRemaining())
+            channel.write(buf);
+    }
+
+    private static void putFrame(ByteBuffer buf, Event e) {
+        final int start = buf.position();
+        buf.putLong(e.recordId().getMostSignificantBits())
+                .putLong(e.recordId().getLeastSignificantBits())
+                .putInt(e.index())
+                .putLong(e.time());
+        final CRC32 crc = new CRC32();
+        crc.update(buf.slice(start, FRAME_SIZE - 4));
+        buf.putInt((int) crc.getValue());
+    }
+
+    private static Map<UUID, List<Event>> read(Path path) throws IOException {
+        final Map<UUID, List<Event>> events = new LinkedHashMap<>();
+        if (Files.notExists(path)) return events;
+        final ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(path));
+        final CRC32 crc = new CRC32();
+        while (buf.remaining() >= FRAME_SIZE) {
+            crc.reset();
+            crc.update(buf.slice(buf.position(), FRAME_SIZE - 4));
+            final UUID recordId = new UUID(buf.getLong(), buf.getLong());
+            final int index = buf.getInt();
+            final long time = buf.getLong();
+            if (buf.getInt() != (int) crc.getValue() || index < 0) {
+                LOGGER.warn("Progress journal {} is corrupt at {}; ignoring the rest", path, buf.position() - FRAME_SIZE);
+                break;
+            }
+            events.computeIfAbsent(recordId, k -> new ArrayList<>()).add(new Event(recordId, index, time));
+        }
+        return events;
+    }
+}
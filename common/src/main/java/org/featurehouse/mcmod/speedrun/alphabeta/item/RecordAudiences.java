@@ -0,0 +1,141 @@
+/*
+ * This file is part of αβspeedrun.
+ * Copyright (C) 2022 Pigeonia Featurehouse
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.featurehouse.mcmod.speedrun.alphabeta.item;
+
+import com.mojang.authlib.GameProfile;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.PlayerManager;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.text.Text;
+import org.featurehouse.mcmod.speedrun.alphabeta.config.BroadcastType;
+import org.featurehouse.mcmod.speedrun.alphabeta.item.coop.CoopablePlayerList;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Index of online players by the record they are running, and of online
+ * operators, so that recipients of record messages are found without
+ * scanning the player list.</p>
+ *
+ * <p>Players are stored by UUID, so a respawned player entity needn't be
+ * re-indexed.</p>
+ *
+ * @see BroadcastType
+ */
+@ApiStatus.Internal
+public final class RecordAudiences {
+    private final PlayerManager playerManager;
+    private final Map<UUID, Set<UUID>> runners = new ConcurrentHashMap<>();
+    private final Set<UUID> operators = ConcurrentHashMap.newKeySet();
+
+    public RecordAudiences(PlayerManager playerManager) {
+        this.playerManager = playerManager;
+    }
+
+    public static RecordAudiences fromServer(MinecraftServer server) {
+        return ((CoopablePlayerList) server.getPlayerManager()).alphabetSpeedrun$getRecordAudiences();
+    }
+
+    public void onRecordChanged(ServerPlayerEntity player, @Nullable ItemRecordAccess oldRecord, @Nullable ItemRecordAccess newRecord) {
+        if (oldRecord == newRecord) return;
+        if (oldRecord != null) remove(oldRecord.recordId(), player.getUuid());
+        // not indexed until joined
+        if (newRecord != null && playerManager.getPlayer(player.getUuid()) == player)
+            runners.computeIfAbsent(newRecord.recordId(), k -> ConcurrentHashMap.newKeySet()).add(player.getUuid());
+    }
+
+    public void onJoin(ServerPlayerEntity player) {
+        final ItemRecordAccess record = player.alphabetSpeedrun$getItemRecordAccess();
+        if (record != null)
+            runners.computeIfAbsent(record.recordId(), k -> ConcurrentHashMap.newKeySet()).add(player.getUuid());
+        if (playerManager.isOperator(player.getGameProfile()))
+            operators.add(player.getUuid());
+    }
+
+    public void onQuit(ServerPlayerEntity player) {
+        final ItemRecordAccess record = player.alphabetSpeedrun$getItemRecordAccess();
+        if (record != null) remove(record.recordId(), player.getUuid());
+        operators.remove(player.getUuid());
+    }
+
+    public void setOperator(GameProfile profile, boolean op) {
+        if (!op) operators.remove(profile.getId());
+        else if (playerManager.getPlayer(profile.getId()) != null) operators.add(profile.getId());
+    }
+
+    private void remove(UUID recordId, UUID playerId) {
+        runners.computeIfPresent(recordId, (k, set) -> {
+            set.remove(playerId);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    /**
+     * @return online players running the record
+     */
+    public Collection<ServerPlayerEntity> runners(ItemRecordAccess record) {
+        final Set<UUID> set = runners.get(record.recordId());
+        if (set == null) return Collections.emptyList();
+        List<ServerPlayerEntity> l = new ArrayList<>(set.size());
+        resolve(set, l);
+        return l;
+    }
+
+    /**
+     * Audiences are nested: {@link BroadcastType#MATES} includes
+     * {@link BroadcastType#SELF}, and {@link BroadcastType#OPERATORS} includes
+     * {@link BroadcastType#MATES}.
+     *
+     * @param player the player who triggered the message, also counted as
+     *               a runner of the record
+     */
+    public Collection<ServerPlayerEntity> audience(BroadcastType type, ItemRecordAccess record, ServerPlayerEntity player) {
+        if (type == BroadcastType.ALL) return playerManager.getPlayerList();
+        Set<ServerPlayerEntity> s = new LinkedHashSet<>();
+        s.add(player);
+        final Set<UUID> set = runners.get(record.recordId());
+        if (set != null) resolve(set, s);
+        if (type == BroadcastType.SELF) return s;
+        s.addAll(record.getMates(playerManager, player));
+        if (type == BroadcastType.MATES) return s;
+        resolve(operators, s);
+        return s;
+    }
+
+    /**
+     * Sends the message to the audience. The server console receives it as
+     * well, as with {@link PlayerManager#broadcast(Text, boolean)}.
+     */
+    public void send(Collection<? extends ServerPlayerEntity> audience, Text message) {
+        playerManager.getServer().sendMessage(message);
+        for (ServerPlayerEntity p : audience) {
+            p.sendMessage(message);
+        }
+    }
+
+    private void resolve(Collection<UUID> ids, Collection<? super ServerPlayerEntity> dest) {
+        for (UUID id : ids) {
+            final ServerPlayerEntity p = playerManager.getPlayer(id);
+            if (p != null) dest.add(p);
+        }
+    }
+}
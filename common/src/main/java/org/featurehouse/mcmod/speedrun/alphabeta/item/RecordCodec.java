@@ -0,0 +1,223 @@
+/*
+ * This file is part of αβspeedrun.
+ * Copyright (C) 2022 Pigeonia Featurehouse
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.featurehouse.mcmod.speedrun.alphabeta.item;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.JsonHelper;
+import org.featurehouse.mcmod.speedrun.alphabeta.item.coop.CoopRecordManager;
+import org.featurehouse.mcmod.speedrun.alphabeta.item.difficulty.DefaultItemSpeedrunDifficulty;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.JsonYYDS;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * <p>Binary form of the record stored in player NBT.</p>
+ *
+ * <p>Timestamps are stored as varints relative to the start time. Requirements
+ * whose snapshot is on disk in {@link GoalSnapshotStore} are referenced by
+ * goal ID and {@link GoalTemplate#contentHash()} instead of being serialized;
+ * other records embed their requirements as compressed JSON.</p>
+ *
+ * <p>Records stored by older versions use {@link ItemRecordAccess#toJsonMeta()},
+ * which is still read.</p>
+ */
+@ApiStatus.Internal
+public final class RecordCodec {
+    private RecordCodec() {}
+
+    static final int FORMAT_VERSION = 1;
+    private static final int KIND_PERSONAL = 0, KIND_COOP = 1;
+    private static final int REQUIREMENTS_REFERENCED = 0, REQUIREMENTS_EMBEDDED = 1;
+
+    public static byte[] encode(ItemRecordAccess record) {
+        var buffer = new ByteArrayOutputStream(64);
+        try (var out = new DataOutputStream(buffer)) {
+            out.writeByte(FORMAT_VERSION);
+            if (record.isCoop()) {
+                out.writeByte(KIND_COOP);
+                writeUuid(out, record.recordId());
+            } else {
+                out.writeByte(KIND_PERSONAL);
+                writePersonal(out, (ItemSpeedrunRecord) record);
+            }
+        } catch (IOException impossible) { throw new IncompatibleClassChangeError(); }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * @return {@code null} if the coop record is absent
+     * @throws IOException if the data is malformed
+     */
+    public static @Nullable ItemRecordAccess decode(byte[] bytes, CoopRecordManager coopMgr) throws IOException {
+        try (var in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            final int version = in.readUnsignedByte();
+            if (version != FORMAT_VERSION)
+                throw new IOException("Unsupported record format " + version);
+            return switch (in.readUnsignedByte()) {
+                case KIND_PERSONAL -> readPersonal(in);
+                case KIND_COOP -> coopMgr.get(readUuid(in));
+                default -> throw new IOException("Unknown record kind");
+            };
+        }
+    }
+
+    private static void writePersonal(DataOutputStream out, ItemSpeedrunRecord record) throws IOException {
+        final long startTime = record.startTime();
+        writeUuid(out, record.recordId());
+        out.writeUTF(record.goalId().toString());
+        out.writeUTF(record.difficulty().getId().toString());
+        writeVarLong(out, zigZag(startTime));
+        writeVarLong(out, relative(record.finishTime(), startTime));
+        writeVarLong(out, relative(record.lastQuitTime(), startTime));
+        writeVarLong(out, zigZag(record.vacantTime()));
+
+        final GoalTemplate template = record.template();
+        // Only once the snapshot is durable; a reference must never outlive it
+        if (GoalSnapshotStore.isStored(template.contentHash())) {
+            out.writeByte(REQUIREMENTS_REFERENCED);
+            out.writeLong(template.contentHash());
+        } else {
+            out.writeByte(REQUIREMENTS_EMBEDDED);
+            JsonObject obj = new JsonObject();
+            JsonArray arr = new JsonArray();
+            template.predicates().forEach(p -> arr.add(p.serialize()));
+            obj.add("predicates", arr);
+            final byte[] json = JsonYYDS.toByteArray(obj).getByteArray();
+            writeVarLong(out, json.length);
+            out.write(json);
+        }
+
+        final long[] collected = record.collected();
+        writeVarLong(out, collected.length);
+        for (long t : collected)
+            writeVarLong(out, relative(t, startTime));
+
+        final Map<UUID, UUID> mates = record.mates();
+        writeVarLong(out, mates.size());
+        for (Map.Entry<UUID, UUID> e : mates.entrySet()) {
+            writeUuid(out, e.getKey());
+            writeUuid(out, e.getValue());
+        }
+    }
+
+    private static ItemSpeedrunRecord readPersonal(DataInputStream in) throws IOException {
+        final UUID recordId = readUuid(in);
+        final Identifier goalId = new Identifier(in.readUTF());
+        final Identifier difficulty = new Identifier(in.readUTF());
+        final long startTime = unZigZag(readVarLong(in));
+        final long finishTime = absolute(readVarLong(in), startTime);
+        final long lastQuitTime = absolute(readVarLong(in), startTime);
+        final long vacantTime = unZigZag(readVarLong(in));
+
+        final GoalTemplate template;
+        switch (in.readUnsignedByte()) {
+            case REQUIREMENTS_REFERENCED -> template = resolve(goalId, in.readLong());
+            case REQUIREMENTS_EMBEDDED -> {
+                final byte[] json = new byte[readLength(in)];
+                in.readFully(json);
+                final JsonArray arr = JsonHelper.getArray(JsonYYDS.fromByteArray(json), "predicates");
+                List<SingleSpeedrunPredicate> predicates = new ArrayList<>(arr.size());
+                arr.forEach(e -> predicates.add(SingleSpeedrunPredicate.deserialize(JsonHelper.asObject(e, "predicate"))));
+                template = GoalTemplate.of(goalId, predicates);
+            }
+            default -> throw new IOException("Unknown requirement mode");
+        }
+
+        final int size = readLength(in);
+        long[] collected = new long[size];
+        for (int i = 0; i < size; i++)
+            collected[i] = absolute(readVarLong(in), startTime);
+        if (size != template.size()) {
+            collected = Arrays.copyOf(collected, template.size());
+            for (int i = size; i < collected.length; i++) collected[i] = -1;
+        }
+
+        final int mateCount = readLength(in);
+        Map<UUID, UUID> mates = new HashMap<>(Math.max(mateCount * 2, 4));
+        for (int i = 0; i < mateCount; i++)
+            mates.put(readUuid(in), readUuid(in));
+
+        return new ItemSpeedrunRecord(template, recordId, collected, startTime, finishTime, lastQuitTime,
+                vacantTime, DefaultItemSpeedrunDifficulty.getDifficulty(difficulty), mates);
+    }
+
+    private static GoalTemplate resolve(Identifier goalId, long contentHash) throws IOException {
+        try {
+            return GoalSnapshotStore.resolve(goalId, contentHash);
+        } catch (JsonParseException e) {
+            throw new IOException("Requirements of goal " + goalId + " referenced by the record are absent", e);
+        }
+    }
+
+    // -1 (absent) -> 0
+    private static long relative(long time, long startTime) {
+        return time < 0 ? 0 : zigZag(time - startTime) + 1;
+    }
+
+    private static long absolute(long encoded, long startTime) {
+        return encoded == 0 ? -1 : unZigZag(encoded - 1) + startTime;
+    }
+
+    private static long zigZag(long l) {
+        return (l << 1) ^ (l >> 63);
+    }
+
+    private static long unZigZag(long l) {
+        return (l >>> 1) ^ -(l & 1);
+    }
+
+    private static void writeVarLong(DataOutput out, long l) throws IOException {
+        while ((l & ~0x7FL) != 0) {
+            out.writeByte((int) (l & 0x7F) | 0x80);
+            l >>>= 7;
+        }
+        out.writeByte((int) l);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long l = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = in.readByte();
+            l |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return l;
+        }
+        throw new IOException("VarLong too big");
+    }
+
+    private static int readLength(DataInput in) throws IOException {
+        final long l = readVarLong(in);
+        if (l < 0 || l > 0xFFFFFF) throw new IOException("Illegal length " + l);
+        return (int) l;
+    }
+
+    private static void writeUuid(DataOutput out, UUID uuid) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID readUuid(DataInput in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * This file is part of αβspeedrun.
+ * Copyright (C) 2022 Pigeonia Featurehouse
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.featurehouse.mcmod.speedrun.alphabeta.item;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Collection state of a record: the timestamp of each requirement, alongside
+ * a bitset of passed requirements and a running counter, so that neither
+ * counting nor completion checks need to scan the timestamps.
+ */
+final class RecordProgress {
+    private final long[] timestamps;
+    private final BitSet passed;
+    private int passedCount;
+
+    RecordProgress(int size) {
+        this(initTimestamps(size));
+    }
+
+    RecordProgress(/*Mutable*/long[] timestamps) {
+        this.timestamps = timestamps;
+        this.passed = new BitSet(timestamps.length);
+        for (int i = 0; i < timestamps.length; i++) {
+            if (timestamps[i] >= 0) {
+                passed.set(i);
+                passedCount++;
+            }
+        }
+    }
+
+    private static long[] initTimestamps(int size) {
+        long[] l = new long[size];
+        Arrays.fill(l, -1);
+        return l;
+    }
+
+    int size() {
+        return timestamps.length;
+    }
+
+    boolean isPassed(int index) {
+        return passed.get(index);
+    }
+
+    void setPassedTime(int index, long time) {
+        timestamps[index] = time;
+        final boolean nowPassed = time >= 0;
+        if (passed.get(index) != nowPassed) {
+            passed.set(index, nowPassed);
+            passedCount += nowPassed ? 1 : -1;
+        }
+    }
+
+    int passedCount() {
+        return passedCount;
+    }
+
+    boolean isComplete() {
+        return passedCount == timestamps.length;
+    }
+
+    // Should not be modified from outside
+    long[] timestamps() {
+        return timestamps;
+    }
+}
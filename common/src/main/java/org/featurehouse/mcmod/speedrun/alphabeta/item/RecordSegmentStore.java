@@ -0,0 +1,449 @@
+/*
+ * This file is part of αβspeedrun.
+ * Copyright (C) 2022 Pigeonia Featurehouse
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.featurehouse.mcmod.speedrun.alphabeta.item;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.mojang.logging.LogUtils;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.RecordIoExecutor;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.ShortNameIndex;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Archived records of one player, appended to segment files
+ * ({@code seg-00000.dat}, ...) in the player's record directory.
+ * <p>
+ * Each frame is {@code [int length][byte type][uuid][int crc32][payload]},
+ * where the payload is the gzipped UTF-8 record JSON. Deletions append a
+ * tombstone; once dead frames exceed {@link #COMPACT_THRESHOLD} of the
+ * store, live records are copied to fresh segments and the old ones
+ * removed. Offsets are kept in memory and rebuilt by scanning frame headers,
+ * which also drops a torn frame at the end of the last segment. A bad frame
+ * in an older segment ends the scan of that segment, and the segment is left
+ * on disk untouched.
+ * <p>
+ * The last segment's channel and size stay open while the store is cached,
+ * and are closed on eviction, rollover and compaction.
+ * <p>
+ * Legacy {@code <uuid>.json} files are moved into the store the first time
+ * a player directory is opened. Only accessed from the record I/O thread.
+ * @see StoredItemRecords
+ */
+final class RecordSegmentStore {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final Gson GSON = new Gson();
+
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("^seg-(\\d{5})\\.dat$");
+    static final long SEGMENT_LIMIT = 8L << 20;
+    static final double COMPACT_THRESHOLD = 0.5;
+    private static final long COMPACT_MIN_DEAD_BYTES = 64L << 10;
+    private static final int HEADER_SIZE = 4 + 1 + 16 + 4;
+    private static final byte TYPE_RECORD = 0, TYPE_TOMBSTONE = 1;
+
+    private static final int MAX_OPEN_STORES = 32;
+    private static final Map<Path, RecordSegmentStore> STORES = new LinkedHashMap<>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, RecordSegmentStore> eldest) {
+            if (size() <= MAX_OPEN_STORES) return false;
+            eldest.getValue().closeActive();
+            return true;
+        }
+    };
+
+    private final Path dir;
+    private final Map<UUID, Location> offsets = new LinkedHashMap<>();
+    private final ShortNameIndex shortNames = new ShortNameIndex();
+    private final List<Integer> segments = new ArrayList<>();
+    // sealed segments with unreadable frames, never deleted by compaction
+    private final Set<Integer> damaged = new HashSet<>();
+    private long totalBytes, deadBytes;
+    // channel and size of the last segment, opened on first use
+    private @Nullable FileChannel active;
+    private long activeSize;
+
+    private record Location(int segment, long offset, int length) {
+        long frameSize() {
+            return HEADER_SIZE + length;
+        }
+    }
+
+    private RecordSegmentStore(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @param playerDir see {@link StoredItemRecords#getPath(Path, UUID, UUID)}
+     */
+    static RecordSegmentStore open(Path playerDir) throws IOException {
+        RecordSegmentStore store = STORES.get(playerDir);
+        if (store == null) {
+            store = new RecordSegmentStore(playerDir);
+            store.load();
+            STORES.put(playerDir, store);
+        }
+        return store;
+    }
+
+    /**
+     * Closes the channels of all cached stores, on the record I/O thread.
+     * Called when the server stops.
+     */
+    static void closeAll() {
+        RecordIoExecutor.supply(() -> {
+            STORES.values().forEach(RecordSegmentStore::closeActive);
+            STORES.clear();
+            return null;
+        }).whenComplete(($, e) -> {
+            // otherwise the stale stores are closed as newer ones evict them
+            if (e != null)
+                LOGGER.warn("Failed to close record segment stores", e);
+        });
+    }
+
+    boolean isEmpty() {
+        return offsets.isEmpty();
+    }
+
+    /**
+     * @return the number of live records
+     */
+    int size() {
+        return offsets.size();
+    }
+
+    /**
+     * @param shortName see {@link ShortNameIndex#shortName(UUID)}
+     */
+    List<UUID> byShortName(int shortName) {
+        return shortNames.get(shortName);
+    }
+
+    @Nullable
+    JsonObject read(UUID recordId) throws IOException {
+        final Location loc = offsets.get(recordId);
+        if (loc == null) return null;
+        return decode(recordId, loc);
+    }
+
+    /**
+     * @return the record JSON as a character stream, for streaming decoders
+     */
+    @Nullable
+    Reader reader(UUID recordId) throws IOException {
+        final Location loc = offsets.get(recordId);
+        if (loc == null) return null;
+        return new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(payload(recordId, loc))), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Visits live records in archive order, skipping unreadable ones.
+     */
+    void forEach(BiConsumer<UUID, JsonObject> action) {
+        for (var e : List.copyOf(offsets.entrySet())) {
+            final JsonObject record;
+            try {
+                record = decode(e.getKey(), e.getValue());
+            } catch (IOException | RuntimeException ex) {
+                LOGGER.warn("Skipping malformed record {} in {}", e.getKey(), dir, ex);
+                continue;
+            }
+            action.accept(e.getKey(), record);
+        }
+    }
+
+    void write(UUID recordId, JsonObject record) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(buffer), StandardCharsets.UTF_8)) {
+            GSON.toJson(record, writer);
+        }
+        write(recordId, buffer.toByteArray());
+    }
+
+    /**
+     * @param gzippedJson the record JSON, UTF-8 encoded and gzipped
+     */
+    void write(UUID recordId, byte[] gzippedJson) throws IOException {
+        final Location old = offsets.put(recordId, append(TYPE_RECORD, recordId, gzippedJson));
+        if (old != null)
+            deadBytes += old.frameSize();
+        else
+            shortNames.add(recordId);
+    }
+
+    boolean delete(UUID recordId) throws IOException {
+        final Location old = offsets.remove(recordId);
+        if (old == null) return false;
+        shortNames.remove(recordId);
+        final Location tombstone = append(TYPE_TOMBSTONE, recordId, new byte[0]);
+        deadBytes += old.frameSize() + tombstone.frameSize();
+        if (deadBytes >= COMPACT_MIN_DEAD_BYTES && deadBytes > totalBytes * COMPACT_THRESHOLD)
+            compact();
+        return true;
+    }
+
+    private JsonObject decode(UUID recordId, Location loc) throws IOException {
+        try (Reader reader = new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(payload(recordId, loc))), StandardCharsets.UTF_8)) {
+            return GSON.fromJson(reader, JsonObject.class);
+        }
+    }
+
+    private byte[] payload(UUID recordId, Location loc) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(4 + loc.length());
+        if (isActive(loc.segment())) {
+            readFully(activeChannel(), buf, loc.offset() + HEADER_SIZE - 4);
+        } else {
+            try (FileChannel ch = FileChannel.open(segmentPath(loc.segment()), StandardOpenOption.READ)) {
+                readFully(ch, buf, loc.offset() + HEADER_SIZE - 4);
+            }
+        }
+        buf.flip();
+        final int crc = buf.getInt();
+        byte[] payload = new byte[loc.length()];
+        buf.get(payload);
+        if (crc32(payload) != crc)
+            throw new IOException("Checksum mismatch for record " + recordId + " in " + segmentPath(loc.segment()));
+        return payload;
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            final int n = ch.read(buf, position);
+            if (n < 0) throw new EOFException("Frame past the end of segment");
+            position += n;
+        }
+    }
+
+    private Location append(byte type, UUID recordId, byte[] payload) throws IOException {
+        if (segments.isEmpty()) {
+            segments.add(0);
+        } else {
+            activeChannel();
+            if (activeSize >= SEGMENT_LIMIT) {
+                closeActive();
+                segments.add(segments.get(segments.size() - 1) + 1);
+            }
+        }
+        final int segment = segments.get(segments.size() - 1);
+        final FileChannel ch = activeChannel();
+        final long offset = activeSize;
+        final ByteBuffer frame = frame(type, recordId, payload);
+        try {
+            for (long pos = offset; frame.hasRemaining(); ) {
+                pos += ch.write(frame, pos);
+            }
+            ch.force(false);
+        } catch (IOException e) {
+            // drop the partial frame, so that later frames are not appended after it
+            try {
+                ch.truncate(offset);
+            } catch (IOException e1) {
+                e.addSuppressed(e1);
+                closeActive();
+            }
+            throw e;
+        }
+        activeSize += frame.limit();
+        totalBytes += frame.limit();
+        return new Location(segment, offset, payload.length);
+    }
+
+    private boolean isActive(int segment) {
+        return !segments.isEmpty() && segment == segments.get(segments.size() - 1);
+    }
+
+    /**
+     * Opens the last segment if needed, creating it and the directory.
+     */
+    private FileChannel activeChannel() throws IOException {
+        if (active == null) {
+            Files.createDirectories(dir);
+            active = FileChannel.open(segmentPath(segments.get(segments.size() - 1)),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            activeSize = active.size();
+        }
+        return active;
+    }
+
+    private void closeActive() {
+        if (active == null) return;
+        try {
+            active.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close the active segment of {}", dir, e);
+        }
+        active = null;
+    }
+
+    private static ByteBuffer frame(byte type, UUID recordId, byte[] payload) {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        buf.putInt(payload.length).put(type)
+                .putLong(recordId.getMostSignificantBits()).putLong(recordId.getLeastSignificantBits())
+                .putInt(crc32(payload)).put(payload);
+        return buf.flip();
+    }
+
+    private static int crc32(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private void load() throws IOException {
+        if (Files.notExists(dir)) return;
+        try (Stream<Path> paths = Files.list(dir)) {
+            paths.map(p -> SEGMENT_PATTERN.matcher(p.getFileName().toString()))
+                    .filter(Matcher::matches)
+                    .map(m -> Integer.parseInt(m.group(1)))
+                    .sorted()
+                    .forEachOrdered(segments::add);
+        }
+        for (int segment : segments) {
+            scan(segment);
+        }
+        migrateLegacy();
+    }
+
+    private void scan(int segment) throws IOException {
+        final Path path = segmentPath(segment);
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final long size = ch.size();
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            long pos = 0;
+            while (pos < size) {
+                header.clear();
+                if (size - pos < HEADER_SIZE || ch.read(header, pos) < HEADER_SIZE) break;
+                header.flip();
+                final int length = header.getInt();
+                final byte type = header.get();
+                if (length < 0 || length > size - pos - HEADER_SIZE || (type != TYPE_RECORD && type != TYPE_TOMBSTONE))
+                    break;
+                final UUID recordId = new UUID(header.getLong(), header.getLong());
+                final Location loc = new Location(segment, pos, length);
+                final Location old = type == TYPE_RECORD ? offsets.put(recordId, loc) : offsets.remove(recordId);
+                if (type == TYPE_RECORD)
+                    shortNames.add(recordId);
+                else
+                    shortNames.remove(recordId);
+                if (old != null)
+                    deadBytes += old.frameSize();
+                if (type == TYPE_TOMBSTONE)
+                    deadBytes += loc.frameSize();
+                pos += loc.frameSize();
+            }
+            if (pos < size) {
+                if (segment == segments.get(segments.size() - 1)) {
+                    LOGGER.warn("Truncating {} torn bytes at the end of {}", size - pos, path);
+                    ch.truncate(pos);
+                } else {
+                    LOGGER.error("Bad frame at {} of {}; ignoring the last {} bytes, which are kept on disk",
+                            pos, path, size - pos);
+                    damaged.add(segment);
+                }
+            }
+            totalBytes += pos;
+        }
+    }
+
+    private void migrateLegacy() throws IOException {
+        List<Path> legacy;
+        try (Stream<Path> paths = Files.list(dir)) {
+            legacy = paths.filter(p -> StoredItemRecords.FILENAME_PATTERN.matcher(p.getFileName().toString()).matches())
+                    .toList();
+        }
+        if (legacy.isEmpty()) return;
+        int migrated = 0;
+        for (Path p : legacy) {
+            final UUID recordId = UUID.fromString(p.getFileName().toString().substring(0, 36));
+            try (BufferedReader reader = Files.newBufferedReader(p, StandardCharsets.UTF_8)) {
+                final JsonObject record = GSON.fromJson(reader, JsonObject.class);
+                if (!offsets.containsKey(recordId))
+                    write(recordId, record);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Skipping malformed record {}", p, e);
+                continue;
+            }
+            Files.delete(p);
+            migrated++;
+        }
+        // summaries may have been built from the old files
+        Files.deleteIfExists(dir.resolve(StoredRecordIndex.FILENAME));
+        LOGGER.info("Migrated {} archived records into {}", migrated, dir);
+    }
+
+    private void compact() throws IOException {
+        final List<Integer> oldSegments = List.copyOf(segments);
+        final Map<UUID, Location> live = new LinkedHashMap<>(offsets);
+        final Map<UUID, byte[]> payloads = new LinkedHashMap<>();
+        for (var e : live.entrySet()) {
+            final Location loc = e.getValue();
+            try (FileChannel ch = FileChannel.open(segmentPath(loc.segment()), StandardOpenOption.READ)) {
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, loc.offset() + HEADER_SIZE, loc.length());
+                byte[] payload = new byte[loc.length()];
+                buf.get(payload);
+                payloads.put(e.getKey(), payload);
+            }
+        }
+        // New segments are numbered after the old ones, so if we crash before
+        // the old ones are deleted, a later scan still ends with the same state.
+        closeActive();
+        segments.clear();
+        segments.add(oldSegments.get(oldSegments.size() - 1) + 1);
+        offsets.clear();
+        totalBytes = deadBytes = 0;
+        for (var e : payloads.entrySet()) {
+            offsets.put(e.getKey(), append(TYPE_RECORD, e.getKey(), e.getValue()));
+        }
+        // Oldest first, so that no tombstone is gone while its record is kept
+        for (int segment : oldSegments) {
+            if (damaged.contains(segment)) {
+                LOGGER.warn("Keeping damaged segment {} of {} and the ones after it", segment, dir);
+                break;
+            }
+            try {
+                Files.deleteIfExists(segmentPath(segment));
+            } catch (IOException e) {
+                LOGGER.warn("Failed to remove compacted segment {} of {}", segment, dir, e);
+                break;
+            }
+        }
+        LOGGER.debug("Compacted {} segments of {}", oldSegments.size(), dir);
+    }
+
+    private Path segmentPath(int segment) {
+        return dir.resolve(String.format(Locale.ROOT, "seg-%05d.dat", segment));
+    }
+}
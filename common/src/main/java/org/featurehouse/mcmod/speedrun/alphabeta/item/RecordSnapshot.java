@@ -18,7 +18,6 @@
 
 package org.featurehouse.mcmod.speedrun.alphabeta.item;
 
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonSyntaxException;
 import net.minecraft.text.HoverEvent;
@@ -27,16 +26,27 @@ import net.minecraft.text.Text;
 import net.minecraft.text.Texts;
 import net.minecraft.util.Formatting;
 import net.minecraft.util.Identifier;
-import net.minecraft.util.JsonHelper;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.command.PlayType;
-import org.featurehouse.mcmod.speedrun.alphabeta.item.difficulty.DefaultItemSpeedrunDifficulty;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.difficulty.ItemSpeedrunDifficulty;
+import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 public record RecordSnapshot(long duration, int collected, int required, Identifier goalId, ItemSpeedrunDifficulty difficulty, UUID recordId, PlayType playType) {
+    /**
+     * Same as {@code fromRecord(record, currentTime).asText()}, but reuses the
+     * text until the record or goals change. The text only depends on time once
+     * the record is finished, and then the duration is fixed.
+     */
+    public static Text asText(ItemRecordAccess record, long currentTime) {
+        return record.snapshotTextCache().get(record, currentTime);
+    }
+
     public static RecordSnapshot fromRecord(ItemRecordAccess record, long currentTime) {
         long duration = record.timeSince(currentTime);
         return new RecordSnapshot(duration, record.getCollectedCount(), record.predicates().size(),
@@ -44,34 +54,7 @@ public record RecordSnapshot(long duration, int collected, int required, Identif
     }
 
     static RecordSnapshot fromPvpRecordJson(@NotNull JsonObject obj, long currentTime) throws JsonSyntaxException {
-        Identifier goalId = new Identifier(JsonHelper.getString(obj, "goal_id"));
-        Identifier difficulty = new Identifier(JsonHelper.getString(obj, "difficulty"));
-        UUID recordId = UUID.fromString(JsonHelper.getString(obj, "record_id"));
-        int required;
-        if (JsonHelper.hasArray(obj, "displayed_stacks")) {
-            // Old schema before v3.0.x
-            required = JsonHelper.getArray(obj, "displayed_stacks").size();
-        } else {
-            required = JsonHelper.getArray(obj, "predicates").size();
-        }
-        int collected = 0; {
-            var arr = JsonHelper.getArray(obj, "collected");
-            for (JsonElement e : arr) {
-                if (e.getAsLong() >= 0) {
-                    collected++;
-                }
-            }
-        }
-        long duration;
-        long startTime = JsonHelper.getLong(obj, "start_time");
-        long l = JsonHelper.getLong(obj, "finish_time", -1);
-        if (l < 0)
-            l = JsonHelper.getLong(obj, "last_quit_time", -1);
-        if (l >= 0)
-            duration = l - startTime;
-        else
-            duration = currentTime - startTime - JsonHelper.getLong(obj, "vacant_time", 0);
-        return new RecordSnapshot(duration, collected, required, goalId, DefaultItemSpeedrunDifficulty.getDifficulty(difficulty), recordId, PlayType.PVP);
+        return StoredRecordIndex.Entry.fromJson(obj).toSnapshot(currentTime);
     }
 
     boolean isFinished() {
@@ -80,13 +63,25 @@ public record RecordSnapshot(long duration, int collected, int required, Identif
 
     public Text asText() {
         return Texts.bracketed(Text.empty() // To avoid things after '#' are bolded
-                        .append(Optional.ofNullable(ItemSpeedrun.get(this.goalId()))
-                                .map(spr -> spr.display().copy())
-                                .orElseGet(() -> Text.translatable("message.speedrun_alphabet.item.goal.unknown"))
-                        ).append(Text.literal("#" + ItemRecordMessages.uuidShort(this.recordId())).formatted(Formatting.GRAY)))
+                        .append(goalDisplay(this.goalId()))
+                        .append(Text.literal("#" + ItemRecordMessages.uuidShort(this.recordId())).formatted(Formatting.GRAY)))
                 .styled(style -> style.withHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, recordInnerText())));
     }
 
+    private static final Map<Identifier, Text> GOAL_DISPLAYS = new ConcurrentHashMap<>();
+    private static volatile int goalDisplayGeneration = -1;
+
+    private static Text goalDisplay(Identifier goalId) {
+        final int generation = ItemSpeedrun.DataLoader.getGeneration();
+        if (generation != goalDisplayGeneration) {
+            GOAL_DISPLAYS.clear();
+            goalDisplayGeneration = generation;
+        }
+        return GOAL_DISPLAYS.computeIfAbsent(goalId, id -> Optional.ofNullable(ItemSpeedrun.get(id))
+                .map(spr -> spr.display().copy())
+                .orElseGet(() -> Text.translatable("message.speedrun_alphabet.item.goal.unknown")));
+    }
+
     private Text recordInnerText() {
         MutableText t = Text.empty();
         t.append(Text.translatable("message.speedrun_alphabet.item.record.goal_id", this.goalId()))
@@ -111,4 +106,26 @@ public record RecordSnapshot(long duration, int collected, int required, Identif
         t.append(Text.translatable("message.speedrun_alphabet.item.non-synced").formatted(Formatting.GRAY));
         return t;
     }
+
+    /**
+     * Text of a record, kept until {@link ItemRecordAccess#version()} or
+     * {@link ItemSpeedrun.DataLoader#getGeneration()} changes.
+     */
+    @ApiStatus.Internal
+    public static final class TextCache {
+        private volatile @Nullable Entry entry;
+
+        Text get(ItemRecordAccess record, long currentTime) {
+            final long version = record.version();
+            final int generation = ItemSpeedrun.DataLoader.getGeneration();
+            Entry e = entry;
+            if (e == null || e.version != version || e.generation != generation) {
+                e = new Entry(version, generation, fromRecord(record, currentTime).asText());
+                entry = e;
+            }
+            return e.text;
+        }
+
+        private record Entry(long version, int generation, Text text) {}
+    }
 }
@@ -21,10 +21,15 @@ package org.featurehouse.mcmod.speedrun.alphabeta.item;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import net.minecraft.advancement.Advancement;
+import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import net.minecraft.predicate.item.ItemPredicate;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.JsonHelper;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.Set;
 
 public interface SingleSpeedrunPredicate {
     default boolean testItemStack(ItemStack stack) {
@@ -35,6 +40,35 @@ public interface SingleSpeedrunPredicate {
         return false;
     }
 
+    /**
+     * @return the only advancement that {@link #fitsAdvancementGet(Advancement)}
+     * accepts, or {@code null} if this is not an advancement requirement.
+     * Implementations accepting advancements must override this, as
+     * {@link GoalTemplate} looks requirements up by it.
+     */
+    @Nullable
+    default Identifier advancementId() {
+        return null;
+    }
+
+    /**
+     * @return all items that {@link #testItemStack(ItemStack)} may accept, or
+     * {@code null} if it cannot be told in advance.
+     * @see ItemPredicateIndex
+     */
+    @Nullable
+    default Set<Item> candidateItems() {
+        return null;
+    }
+
+    /**
+     * @return whether {@link #testItemStack(ItemStack)} may depend on the
+     * count of the stack
+     */
+    default boolean isCountSensitive() {
+        return true;
+    }
+
     ItemStack getIcon();
 
     JsonObject serialize();
@@ -57,15 +91,27 @@ public interface SingleSpeedrunPredicate {
     final class OfItemPredicate implements SingleSpeedrunPredicate {
         private final ItemPredicate predicate;
         private final ItemStack icon;
+        private final ItemStackMatcher matcher;
 
         public OfItemPredicate(ItemPredicate predicate, ItemStack icon) {
             this.predicate = predicate;
             this.icon = icon;
+            this.matcher = ItemStackMatcher.compile(predicate);
         }
 
         @Override
         public boolean testItemStack(ItemStack stack) {
-            return predicate.test(stack);
+            return matcher.test(stack);
+        }
+
+        @Override
+        public @Nullable Set<Item> candidateItems() {
+            return matcher.candidateItems();
+        }
+
+        @Override
+        public boolean isCountSensitive() {
+            return matcher.isCountSensitive();
         }
 
         @Override
@@ -97,6 +143,21 @@ public interface SingleSpeedrunPredicate {
             return advancement.getId().equals(advancementId);
         }
 
+        @Override
+        public Identifier advancementId() {
+            return advancementId;
+        }
+
+        @Override
+        public Set<Item> candidateItems() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public boolean isCountSensitive() {
+            return false;
+        }
+
         @Override
         public ItemStack getIcon() {
             return icon.copy();
@@ -18,143 +18,201 @@
 
 package org.featurehouse.mcmod.speedrun.alphabeta.item;
 
-import com.google.common.base.Suppliers;
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
-import com.mojang.datafixers.util.Either;
-import com.mojang.datafixers.util.Unit;
+import com.google.common.base.Preconditions;
 import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.text.Text;
 import net.minecraft.util.Formatting;
 import net.minecraft.util.WorldSavePath;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.command.ItemSpeedrunCommandHandle;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.RecordIoExecutor;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.qj5.JsonReader;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.qj5.JsonWriter;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.regex.Pattern;
-import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
 public class StoredItemRecords {
-    private static final Gson GSON = new Gson();
-
     public static Path getPath(Path root, UUID playerUuid, @Nullable UUID recordUuid) {
         Path playerRoot = root.resolve("alphabet-speedrun-records/item")
                 .resolve(playerUuid.toString());
         return recordUuid == null ? playerRoot : playerRoot.resolve(recordUuid + ".json");
     }
 
+    /**
+     * Reads a record in the legacy one-file-per-record layout.
+     * @return a future completed on the record I/O thread
+     * @see RecordIoExecutor
+     */
     public static CompletableFuture<ItemSpeedrunRecord> readRecord(Path path) {
-        return CompletableFuture.<Either<ItemSpeedrunRecord, Throwable>>supplyAsync(() -> {
-            try (final BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
-                return Either.left(ItemSpeedrunRecord.fromJson(GSON.fromJson(reader, JsonObject.class), true));
-            } catch (IOException | RuntimeException e) {
-                return Either.right(e);
+        return RecordIoExecutor.supply(() -> {
+            try (final JsonReader reader = JsonReader.json(path)) {
+                return ItemSpeedrunRecord.readFromJson(reader, true);
             }
-        }).thenCompose(either -> either.map(CompletableFuture::completedFuture, CompletableFuture::failedFuture));
+        });
+    }
+
+    /**
+     * Reads an archived record from the player's {@link RecordSegmentStore}.
+     * @return a future completed on the record I/O thread
+     */
+    public static CompletableFuture<ItemSpeedrunRecord> readRecord(ServerPlayerEntity player, UUID recordUuid) {
+        final Path dir = getPath(rootPath(player), player.getUuid(), null);
+        return RecordIoExecutor.supply(() -> {
+            final Reader in = RecordSegmentStore.open(dir).reader(recordUuid);
+            if (in == null) throw new NoSuchFileException(dir.toString(), null, "No record " + recordUuid);
+            try (JsonReader reader = JsonReader.json(in)) {
+                return ItemSpeedrunRecord.readFromJson(reader, true);
+            }
+        });
+    }
+
+    /**
+     * @param shortName like {@code #1234}
+     * @return archived records of the player with the short name, completed
+     * on the record I/O thread
+     */
+    public static CompletableFuture<List<UUID>> findByShortName(ServerPlayerEntity player, String shortName) {
+        Preconditions.checkArgument(ItemRecordAccess.SHORT_NAME_PATTERN.matcher(shortName).matches(), "short name should be like #1234");
+        final int key = Integer.parseInt(shortName.substring(1), 16);
+        final Path dir = getPath(rootPath(player), player.getUuid(), null);
+        return RecordIoExecutor.supply(() -> RecordSegmentStore.open(dir).byShortName(key));
+    }
+
+    /**
+     * Resolves {@code shortName} among the player's archived records and
+     * runs {@code action} with the record on the server thread. The player
+     * is told instead if no record, or more than one, matches.
+     * @param shortName like {@code #1234}
+     */
+    public static CompletableFuture<Void> withShortName(ServerPlayerEntity player, String shortName,
+                                                        Function<UUID, CompletableFuture<Void>> action) {
+        return findByShortName(player, shortName).thenComposeAsync(ids -> {
+            if (ids.size() == 1)
+                return action.apply(ids.get(0));
+            player.sendMessage((ids.isEmpty() ?
+                    Text.translatable("command.speedrun.alphabet.short_name.not_found", shortName) :
+                    Text.translatable("command.speedrun.alphabet.short_name.ambiguous", shortName, ids.size())
+            ).formatted(Formatting.RED));
+            return CompletableFuture.completedFuture(null);
+        }, RecordIoExecutor.serverThread());
     }
 
     public static CompletableFuture<Void> resumeRecord(ServerPlayerEntity player, UUID recordUuid) {
-        return readRecord(getPath(rootPath(player), player.getUuid(), recordUuid))
+        return readRecord(player, recordUuid)
                 .thenAcceptAsync(record -> {
                     if (record.isFinished()) {
                         player.sendMessage(Text.translatable("command.speedrun.alphabet.resume.done", recordUuid).formatted(Formatting.RED));
-                    } else {
-                        synchronized (player) {
-                            final ItemRecordAccess old = player.alphabetSpeedrun$getItemRecordAccess();
-                            if (old != null && old.isCoop()) {
-                                if (ItemSpeedrunCommandHandle.quit(t -> player.sendMessage(t.copy().formatted(Formatting.RED)), player, true) == 0) {
-                                    return;
-                                }
-                            } else {
-                                player.alphabetSpeedrun$moveRecordToHistory();
-                            }
-                            player.alphabetSpeedrun$setItemRecordAccess(record);
-                            //record.setLastQuitTime(-1);
-                            player.sendMessage(Text.translatable("command.speedrun.alphabet.resume",
-                                    record.goalId(), record.recordId()));
-                            ItemSpeedrunEvents.START_RUNNING_EVENT.invoker().onStartRunning(player, record, ItemSpeedrunEvents.StartRunning.FROM_DISK);
+                        return;
+                    }
+                    final ItemRecordAccess old = player.alphabetSpeedrun$getItemRecordAccess();
+                    if (old != null && old.isCoop()) {
+                        if (ItemSpeedrunCommandHandle.quit(t -> player.sendMessage(t.copy().formatted(Formatting.RED)), player, true) == 0) {
+                            return;
                         }
+                    } else {
+                        player.alphabetSpeedrun$moveRecordToHistory();
                     }
-                });
+                    player.alphabetSpeedrun$setItemRecordAccess(record);
+                    //record.setLastQuitTime(-1);
+                    player.sendMessage(Text.translatable("command.speedrun.alphabet.resume",
+                            record.goalId(), record.recordId()));
+                    ItemSpeedrunEvents.START_RUNNING_EVENT.invoker().onStartRunning(player, record, ItemSpeedrunEvents.StartRunning.FROM_DISK);
+                }, RecordIoExecutor.serverThread());
     }
 
     // Record: the one in history
     public static CompletableFuture<Void> archiveRecord(ServerPlayerEntity player, Supplier<ItemSpeedrunRecord> record0) {
-        Supplier<ItemSpeedrunRecord> record = Suppliers.memoize(record0::get);
-        return CompletableFuture.<Either<Unit, Throwable>>supplyAsync(() -> {
-            if (record.get() == null) {
-                // TODO: change message receiver to command source
-                player.sendMessage(Text.translatable("command.speedrun.alphabet.archive.empty").formatted(Formatting.RED));
-                return Either.left(Unit.INSTANCE);
-            }
-            final JsonObject json = record.get().toJson();
-            Path path = getPath(rootPath(player), player.getUuid(), record.get().recordId());
-            try {
-                Files.createDirectories(path.getParent());
-                try (BufferedWriter bw = Files.newBufferedWriter(path)){
-                    GSON.toJson(json, bw);
-                }
-            } catch (IOException e) {
-                return Either.right(e);
-            }
-            return Either.left(Unit.INSTANCE);
-        }).thenCompose(either -> either.map(CompletableFuture::completedFuture, CompletableFuture::failedFuture))
-                .thenAccept($ -> {
-                    synchronized (player) {
-                        player.alphabetSpeedrun$clearItemHistory();
-                        player.sendMessage(Text.translatable("command.speedrun.alphabet.archive",
-                                record.get().goalId(), record.get().recordId()));
-                    }
-                });
+        final ItemSpeedrunRecord record = record0.get();
+        if (record == null) {
+            // TODO: change message receiver to command source
+            player.sendMessage(Text.translatable("command.speedrun.alphabet.archive.empty").formatted(Formatting.RED));
+            return CompletableFuture.completedFuture(null);
+        }
+        GoalSnapshotStore.persist(record.template());
+        final byte[] encoded;
+        try {
+            encoded = encode(record);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        final StoredRecordIndex.Entry entry = StoredRecordIndex.Entry.fromRecord(record);
+        final Path dir = getPath(rootPath(player), player.getUuid(), null);
+        return RecordIoExecutor.supply(() -> {
+            RecordSegmentStore.open(dir).write(record.recordId(), encoded);
+            StoredRecordIndex.put(dir, entry);
+            return null;
+        }).thenAcceptAsync($ -> {
+            // The history may have been replaced while writing
+            if (record.recordId().equals(player.alphabetSpeedrun$getHistoryRecordId()))
+                player.alphabetSpeedrun$clearItemHistory();
+            player.sendMessage(Text.translatable("command.speedrun.alphabet.archive",
+                    record.goalId(), record.recordId()));
+        }, RecordIoExecutor.serverThread());
+    }
+
+    // gzipped UTF-8 JSON, as stored by RecordSegmentStore
+    private static byte[] encode(ItemSpeedrunRecord record) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (JsonWriter writer = JsonWriter.json(new OutputStreamWriter(new GZIPOutputStream(buffer), StandardCharsets.UTF_8))) {
+            writer.setCompact();
+            record.writeToJson(writer);
+        }
+        return buffer.toByteArray();
     }
 
     public static CompletableFuture<Void> deleteRecord(ServerPlayerEntity player, UUID uuid) {
-        return CompletableFuture.<Either<Unit, Throwable>>supplyAsync(() -> {
-            Path path = getPath(rootPath(player), player.getUuid(), uuid);
-            try {
-                if (Files.deleteIfExists(path)) {
-                    player.sendMessage(Text.translatable("command.speedrun.alphabet.delete", uuid));
-                } else {
-                    player.sendMessage(Text.translatable("command.speedrun.alphabet.delete.not_found", uuid));
-                }
-            } catch (IOException e) {
-                return Either.right(e);
-            }
-            return Either.left(Unit.INSTANCE);
-        }).thenCompose(either -> either.map(CompletableFuture::completedFuture, CompletableFuture::failedFuture)).thenAccept($->{});
+        final Path dir = getPath(rootPath(player), player.getUuid(), null);
+        return RecordIoExecutor.supply(() -> {
+                    if (!RecordSegmentStore.open(dir).delete(uuid)) return false;
+                    StoredRecordIndex.remove(dir, uuid);
+                    return true;
+                })
+                .thenAcceptAsync(deleted -> player.sendMessage(deleted ?
+                        Text.translatable("command.speedrun.alphabet.delete", uuid) :
+                        Text.translatable("command.speedrun.alphabet.delete.not_found", uuid)),
+                        RecordIoExecutor.serverThread());
     }
 
+    public static final int LIST_PAGE_SIZE = 10;
+
     public static CompletableFuture<Void> listRecords(ServerPlayerEntity player) {
-        return CompletableFuture.<Either<Unit, Throwable>>supplyAsync(() -> {
-            Path path = getPath(rootPath(player), player.getUuid(), null);
-            if (Files.notExists(path)) {
+        return listRecords(player, 1);
+    }
+
+    /**
+     * @param page 1-based
+     */
+    public static CompletableFuture<Void> listRecords(ServerPlayerEntity player, int page) {
+        final Path path = getPath(rootPath(player), player.getUuid(), null);
+        final long time = player.server.getOverworld().getTime();
+        return RecordIoExecutor.supply(() -> StoredRecordIndex.load(path)).thenAcceptAsync(entries -> {
+            if (entries.isEmpty()) {
                 player.sendMessage(Text.translatable("command.speedrun.alphabet.list.empty").formatted(Formatting.RED));
-                return Either.left(Unit.INSTANCE);
+                return;
             }
-            try (Stream<Path> paths = Files.list(path)) {
-                List<Path> strings = paths.filter(p -> FILENAME_PATTERN.asMatchPredicate().test(p.getFileName().toString()))
-                        .toList();
-                player.sendMessage(Text.translatable("command.speedrun.alphabet.list.header", player.getDisplayName()));
-                for (Path p : strings) {
-                    JsonObject obj = GSON.fromJson(Files.newBufferedReader(p), JsonObject.class);
-                    RecordSnapshot record = RecordSnapshot.fromPvpRecordJson(obj, player.server.getOverworld().getTime());
-                    player.sendMessage(Text.literal(" * ").append(record.asText()));
-                }
-                player.sendMessage(Text.translatable("command.speedrun.alphabet.list.footer", strings.size()));
-            } catch (IOException e) {
-                return Either.right(e);
+            final int pages = (entries.size() + LIST_PAGE_SIZE - 1) / LIST_PAGE_SIZE;
+            final int p = Math.min(page, pages);
+            player.sendMessage(Text.translatable("command.speedrun.alphabet.list.header", player.getDisplayName()));
+            for (StoredRecordIndex.Entry entry : entries.subList((p - 1) * LIST_PAGE_SIZE, Math.min(p * LIST_PAGE_SIZE, entries.size()))) {
+                player.sendMessage(Text.literal(" * ").append(entry.toSnapshot(time).asText()));
             }
-            return Either.left(Unit.INSTANCE);
-        }).thenCompose(either -> either.map(CompletableFuture::completedFuture, CompletableFuture::failedFuture)).thenAccept($->{});
+            player.sendMessage(Text.translatable("command.speedrun.alphabet.list.footer", entries.size()));
+            if (pages > 1)
+                player.sendMessage(Text.translatable("command.speedrun.alphabet.list.page", p, pages).formatted(Formatting.GRAY));
+        }, RecordIoExecutor.serverThread());
     }
 
     static Path rootPath(ServerPlayerEntity player) {
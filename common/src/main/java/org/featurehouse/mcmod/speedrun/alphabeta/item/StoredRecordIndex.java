@@ -0,0 +1,258 @@
+/*
+ * This file is part of αβspeedrun.
+ * Copyright (C) 2022 Pigeonia Featurehouse
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.featurehouse.mcmod.speedrun.alphabeta.item;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.mojang.logging.LogUtils;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.JsonHelper;
+import org.featurehouse.mcmod.speedrun.alphabeta.item.command.PlayType;
+import org.featurehouse.mcmod.speedrun.alphabeta.item.difficulty.DefaultItemSpeedrunDifficulty;
+import org.slf4j.Logger;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Summaries of a player's archived records, kept next to them so that
+ * listing does not have to parse every record.
+ * <p>
+ * The file is a header followed by a log of put and remove operations,
+ * appended on archive and delete and rewritten compactly once it grows past
+ * twice the live entries. It is rebuilt from the
+ * {@linkplain RecordSegmentStore store} if missing, unreadable, or if its
+ * entry count disagrees with the store's. Only accessed from the record I/O thread.
+ * @see StoredItemRecords
+ */
+final class StoredRecordIndex {
+    private StoredRecordIndex() {}
+
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    static final String FILENAME = "index.bin";
+    private static final int MAGIC = 0x41424958;    // ABIX
+    private static final int FORMAT_VERSION = 2;
+    private static final byte OP_PUT = 0, OP_REMOVE = 1;
+    // replayed operations beyond which a load rewrites the index compactly
+    private static final int COMPACT_MIN_OPS = 256;
+
+    record Entry(UUID recordId, Identifier goalId, Identifier difficulty, int collected, int required,
+                 long startTime, long endTime, long vacantTime) {
+        static Entry fromJson(JsonObject obj) throws JsonParseException {
+            Identifier goalId = new Identifier(JsonHelper.getString(obj, "goal_id"));
+            Identifier difficulty = new Identifier(JsonHelper.getString(obj, "difficulty"));
+            UUID recordId = UUID.fromString(JsonHelper.getString(obj, "record_id"));
+            int required;
+            if (JsonHelper.hasArray(obj, "displayed_stacks")) {
+                // Old schema before v3.0.x
+                required = JsonHelper.getArray(obj, "displayed_stacks").size();
+            } else if (JsonHelper.hasArray(obj, "predicates")) {
+                required = JsonHelper.getArray(obj, "predicates").size();
+            } else {
+                // see GoalSnapshotStore
+                required = JsonHelper.getInt(obj, "requirement_count");
+            }
+            int collected = 0;
+            for (JsonElement e : JsonHelper.getArray(obj, "collected")) {
+                if (e.getAsLong() >= 0) {
+                    collected++;
+                }
+            }
+            long startTime = JsonHelper.getLong(obj, "start_time");
+            long endTime = JsonHelper.getLong(obj, "finish_time", -1);
+            if (endTime < 0)
+                endTime = JsonHelper.getLong(obj, "last_quit_time", -1);
+            return new Entry(recordId, goalId, difficulty, collected, required,
+                    startTime, endTime, JsonHelper.getLong(obj, "vacant_time", 0));
+        }
+
+        static Entry fromRecord(ItemSpeedrunRecord record) {
+            int collected = 0;
+            for (long t : record.collected()) {
+                if (t >= 0) collected++;
+            }
+            long endTime = record.finishTime();
+            if (endTime < 0)
+                endTime = record.lastQuitTime();
+            return new Entry(record.recordId(), record.goalId(), record.difficulty().getId(), collected,
+                    record.template().size(), record.startTime(), endTime, record.vacantTime());
+        }
+
+        RecordSnapshot toSnapshot(long currentTime) {
+            long duration = endTime >= 0 ? endTime - startTime : currentTime - startTime - vacantTime;
+            return new RecordSnapshot(duration, collected, required, goalId,
+                    DefaultItemSpeedrunDifficulty.getDifficulty(difficulty), recordId, PlayType.PVP);
+        }
+
+        boolean isFinished() {
+            return collected == required;
+        }
+
+        void write(DataOutput out) throws IOException {
+            out.writeLong(recordId.getMostSignificantBits());
+            out.writeLong(recordId.getLeastSignificantBits());
+            out.writeUTF(goalId.toString());
+            out.writeUTF(difficulty.toString());
+            out.writeInt(collected);
+            out.writeInt(required);
+            out.writeLong(startTime);
+            out.writeLong(endTime);
+            out.writeLong(vacantTime);
+        }
+
+        static Entry read(DataInput in) throws IOException {
+            UUID recordId = new UUID(in.readLong(), in.readLong());
+            try {
+                return new Entry(recordId, new Identifier(in.readUTF()), new Identifier(in.readUTF()),
+                        in.readInt(), in.readInt(), in.readLong(), in.readLong(), in.readLong());
+            } catch (RuntimeException e) {
+                throw new IOException("Malformed index entry " + recordId, e);
+            }
+        }
+    }
+
+    /**
+     * @param playerDir see {@link StoredItemRecords#getPath(Path, UUID, UUID)}
+     * @return entries in archive order
+     */
+    static List<Entry> load(Path playerDir) throws IOException {
+        final Map<UUID, Entry> entries = new LinkedHashMap<>();
+        final int ops, skipped;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(playerDir.resolve(FILENAME))))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != FORMAT_VERSION)
+                throw new IOException("Unknown index format");
+            skipped = in.readInt();
+            ops = replay(in, entries);
+        } catch (NoSuchFileException e) {
+            return rebuild(playerDir);
+        } catch (IOException e) {
+            LOGGER.warn("Rebuilding record index of {}", playerDir, e);
+            return rebuild(playerDir);
+        }
+        final int stored = RecordSegmentStore.open(playerDir).size();
+        if (entries.size() + skipped != stored) {
+            LOGGER.warn("Rebuilding record index of {}: {} entries for {} stored records",
+                    playerDir, entries.size() + skipped, stored);
+            return rebuild(playerDir);
+        }
+        List<Entry> list = new ArrayList<>(entries.values());
+        if (ops > COMPACT_MIN_OPS && ops > 2 * list.size())
+            save(playerDir, list, skipped);
+        return list;
+    }
+
+    private static int replay(DataInputStream in, Map<UUID, Entry> entries) throws IOException {
+        int ops = 0;
+        int op;
+        while ((op = in.read()) >= 0) {
+            switch (op) {
+                case OP_PUT -> {
+                    Entry entry = Entry.read(in);
+                    entries.remove(entry.recordId());
+                    entries.put(entry.recordId(), entry);
+                }
+                case OP_REMOVE -> entries.remove(new UUID(in.readLong(), in.readLong()));
+                default -> throw new IOException("Unknown index operation " + op);
+            }
+            ops++;
+        }
+        return ops;
+    }
+
+    /**
+     * Appends {@code entry}, replacing any entry of the same record. Called
+     * after the record itself is written to the store.
+     */
+    static void put(Path playerDir, Entry entry) throws IOException {
+        if (Files.notExists(playerDir.resolve(FILENAME))) {
+            rebuild(playerDir);
+            return;
+        }
+        append(playerDir, out -> {
+            out.writeByte(OP_PUT);
+            entry.write(out);
+        });
+    }
+
+    static void remove(Path playerDir, UUID recordId) throws IOException {
+        if (Files.notExists(playerDir.resolve(FILENAME))) {
+            rebuild(playerDir);
+            return;
+        }
+        append(playerDir, out -> {
+            out.writeByte(OP_REMOVE);
+            out.writeLong(recordId.getMostSignificantBits());
+            out.writeLong(recordId.getLeastSignificantBits());
+        });
+    }
+
+    private interface Op {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // A torn append fails the next replay, which then rebuilds the index
+    private static void append(Path playerDir, Op op) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(playerDir.resolve(FILENAME), StandardOpenOption.APPEND)))) {
+            op.write(out);
+        }
+    }
+
+    private static List<Entry> rebuild(Path playerDir) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        if (Files.notExists(playerDir)) return entries;
+        final int[] skipped = {0};
+        RecordSegmentStore.open(playerDir).forEach((recordId, record) -> {
+            try {
+                entries.add(Entry.fromJson(record));
+            } catch (RuntimeException e) {
+                LOGGER.warn("Skipping malformed record {} in {}", recordId, playerDir, e);
+                skipped[0]++;
+            }
+        });
+        save(playerDir, entries, skipped[0]);
+        return entries;
+    }
+
+    /**
+     * @param skipped stored records left out because they could not be
+     *                summarized, so that they do not trigger a rebuild on every load
+     */
+    private static void save(Path playerDir, List<Entry> entries, int skipped) throws IOException {
+        Files.createDirectories(playerDir);
+        final Path tmp = playerDir.resolve(FILENAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeInt(skipped);
+            for (Entry e : entries) {
+                out.writeByte(OP_PUT);
+                e.write(out);
+            }
+        }
+        Files.move(tmp, playerDir.resolve(FILENAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
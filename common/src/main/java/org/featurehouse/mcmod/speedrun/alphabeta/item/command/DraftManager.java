@@ -67,7 +67,7 @@ public class DraftManager {
         ItemRecordAccess acc;
         if ((acc = serverPlayer.alphabetSpeedrun$getItemRecordAccess()) != null)
             return Optional.of(Text.translatable("command.speedrun.alphabet.draft.running",
-                    RecordSnapshot.fromRecord(acc, serverPlayer.server.getOverworld().getTime()).asText()));
+                    RecordSnapshot.asText(acc, serverPlayer.server.getOverworld().getTime())));
         UUID uuid;
         if (drafts.containsKey(uuid = serverPlayer.getUuid()))
             return Optional.of(Text.translatable("command.speedrun.alphabet.draft.dup"));
@@ -33,6 +33,7 @@ import org.featurehouse.mcmod.speedrun.alphabeta.config.AlphabetSpeedrunConfigDa
 import org.featurehouse.mcmod.speedrun.alphabeta.item.*;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.coop.CoopRecord;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.coop.CoopRecordAccess;
+import org.featurehouse.mcmod.speedrun.alphabeta.item.coop.CoopRecordManager;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.difficulty.DefaultItemSpeedrunDifficulty;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.difficulty.ItemSpeedrunDifficulty;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.menu.ItemListMenuSync;
@@ -56,7 +57,7 @@ public final class ItemSpeedrunCommandHandle {
         final long igt = player.server.getOverworld().getTime();
         if ((record0 = player.alphabetSpeedrun$getItemRecordAccess()) != null) {
             errorConsumer.accept(Text.translatable("command.speedrun.alphabet.start.started",
-                    player.getDisplayName(), RecordSnapshot.fromRecord(record0, igt).asText()));
+                    player.getDisplayName(), RecordSnapshot.asText(record0, igt)));
             return 0;
         }
 
@@ -66,18 +67,17 @@ public final class ItemSpeedrunCommandHandle {
         final PlayerManager playerManager = player.server.getPlayerManager();
         if (draft.getPlayType() == PlayType.COOP) {
             CoopRecord coopRecord = new CoopRecord(record, /*operators=*/draft.getOperators(), /*players=*/players);
+            CoopRecordManager.fromServer(player.server).add(coopRecord);
             coopRecord.getMates(playerManager, null).forEach(p -> {
                 // Everyone
-                RecordSnapshot record1 = RecordSnapshot.fromRecord(coopRecord, igt);
                 player.sendMessage(Text.translatable("command.speedrun.alphabet.start",
-                        record1.asText()));
+                        RecordSnapshot.asText(coopRecord, igt)));
                 ItemSpeedrunEvents.START_RUNNING_EVENT.invoker().onStartRunning(player, coopRecord, ItemSpeedrunEvents.StartRunning.START_COOP);
                 coopRecord.onStart(player);
             });
         } else {    // PVP
             // owner
-            RecordSnapshot record1 = RecordSnapshot.fromRecord(record, igt);
-            player.sendMessage(Text.translatable("command.speedrun.alphabet.start", record1.asText()));
+            player.sendMessage(Text.translatable("command.speedrun.alphabet.start", RecordSnapshot.asText(record, igt)));
             ItemSpeedrunEvents.START_RUNNING_EVENT.invoker().onStartRunning(player, record, ItemSpeedrunEvents.StartRunning.START);
             record.onStart(player);
             // invite
@@ -85,13 +85,12 @@ public final class ItemSpeedrunCommandHandle {
                 ServerPlayerEntity player1 = playerManager.getPlayer(p0);
                 if (player1 == null) return;
                 ItemSpeedrunRecord subRecord = createSPRecord(speedrun, playerManager.getServer(), draft.getDifficulty());
-                RecordSnapshot recordSnapshot = RecordSnapshot.fromRecord(subRecord, igt);
-                player1.sendMessage(Text.translatable("command.speedrun.alphabet.start", recordSnapshot.asText()));
+                player1.sendMessage(Text.translatable("command.speedrun.alphabet.start", RecordSnapshot.asText(subRecord, igt)));
                 ItemSpeedrunEvents.START_RUNNING_EVENT.invoker().onStartRunning(player1, subRecord, ItemSpeedrunEvents.StartRunning.START);
                 subRecord.onStart(player1);
                 //subRecord.sudoJoin(p0, Collections.singleton(player));
-                record.mates().put(p0, subRecord.recordId());
-                subRecord.mates().put(player.getUuid(), record.recordId());
+                record.putMate(p0, subRecord.recordId());
+                subRecord.putMate(player.getUuid(), record.recordId());
             });
         }
         return 1;
@@ -112,14 +111,14 @@ public final class ItemSpeedrunCommandHandle {
             ItemRecordAccess record;
             if ((record = player.alphabetSpeedrun$getItemRecordAccess()) != null) {
                 sender.sendError(Text.translatable("command.speedrun.alphabet.start.started",
-                        player.getDisplayName(), RecordSnapshot.fromRecord(record, time).asText()));
+                        player.getDisplayName(), RecordSnapshot.asText(record, time)));
                 continue;
             }
             record = createSPRecord(speedrun, sender.getServer(), difficulty);
             player.alphabetSpeedrun$setItemRecordAccess(record);
             // Start
             player.sendMessage(Text.translatable("command.speedrun.alphabet.start",
-                    RecordSnapshot.fromRecord(record, time).asText()));
+                    RecordSnapshot.asText(record, time)));
             ItemSpeedrunEvents.START_RUNNING_EVENT.invoker().onStartRunning(player, record, ItemSpeedrunEvents.StartRunning.START);
             difficulty.onStart(player);
         }
@@ -131,10 +130,24 @@ public final class ItemSpeedrunCommandHandle {
     }
 
     public static void tryResumeInventory(ServerPlayerEntity player) {
+        final ItemRecordAccess record = player.alphabetSpeedrun$getItemRecordAccess();
+        if (record != null) tryResumeInventory(player, record);
+    }
+
+    /**
+     * Scans the inventory of {@code player} for {@code record}, skipping slots
+     * that have not changed since they were last scanned for the same record.
+     */
+    public static void tryResumeInventory(ServerPlayerEntity player, ItemRecordAccess record) {
         final PlayerInventory inv = player.getInventory();
         final int size = inv.size();
+        final InventoryFingerprint fingerprint = player.alphabetSpeedrun$getInventoryFingerprint();
+        fingerprint.begin(record, size);
         for (int i = 0; i < size; i++) {
-            ItemSpeedrunEvents.onItemPickup(player, inv.getStack(i));
+            final ItemStack stack = inv.getStack(i);
+            if (fingerprint.isUpToDate(i, stack)) continue;
+            ItemSpeedrunEvents.evaluateStack(player, record, stack);
+            fingerprint.update(i, stack);
         }
     }
 
@@ -164,7 +177,7 @@ public final class ItemSpeedrunCommandHandle {
         coopRecord.getPlayers().remove(player.getUuid());
         if (sendMsgToPlayer) {
             player.sendMessage(Text.translatable("command.speedrun.alphabet.quit",
-                    RecordSnapshot.fromRecord(coopRecord, player.server.getOverworld().getTime()).asText()));
+                    RecordSnapshot.asText(coopRecord, player.server.getOverworld().getTime())));
         }
         return 1;
     }
@@ -189,7 +202,7 @@ public final class ItemSpeedrunCommandHandle {
                         stop = true;
 
                     if (stop) {
-                        final Text text = RecordSnapshot.fromRecord(oldRecord, player.server.getOverworld().getTime()).asText();
+                        final Text text = RecordSnapshot.asText(oldRecord, player.server.getOverworld().getTime());
 
                         for (UUID coopPlayer : coop.getPlayers()) {
                             final ServerPlayerEntity p0 = player.server.getPlayerManager().getPlayer(coopPlayer);
@@ -227,7 +240,7 @@ public final class ItemSpeedrunCommandHandle {
             final long time = player.server.getOverworld().getTime();
             if ((record = player.alphabetSpeedrun$getItemRecordAccess()) != null) {
                 sender.sendError(Text.translatable("command.speedrun.alphabet.start.started",
-                        player.getDisplayName(), RecordSnapshot.fromRecord(record, time).asText()));
+                        player.getDisplayName(), RecordSnapshot.asText(record, time)));
                 continue;
             }
             if (!player.alphabetSpeedrun$resumeLocalHistory()) {
@@ -238,7 +251,7 @@ public final class ItemSpeedrunCommandHandle {
             record = player.alphabetSpeedrun$getItemRecordAccess();
             Objects.requireNonNull(record);//.setLastQuitTime(-1);
             player.sendMessage(Text.translatable("command.speedrun.alphabet.resume",
-                    RecordSnapshot.fromRecord(record, time).asText()));
+                    RecordSnapshot.asText(record, time)));
             ItemSpeedrunEvents.START_RUNNING_EVENT.invoker().onStartRunning(player, record, ItemSpeedrunEvents.StartRunning.FROM_LOCAL);
         }
         return 1;
@@ -282,12 +295,8 @@ public final class ItemSpeedrunCommandHandle {
     }
 
     static ItemSpeedrunRecord createSPRecord(ItemSpeedrun goal, MinecraftServer server, ItemSpeedrunDifficulty difficulty) {
-        final List<ItemPredicateProvider> key = goal.items();
-        final List<SingleSpeedrunPredicate> requirements0 = key.stream().flatMap(ItemPredicateProvider::flatMaps).toList();
-
         long startTime = server.getOverworld().getTime();
         UUID recordId = UUID.randomUUID();
-        return new ItemSpeedrunRecord(goal.id(), recordId, requirements0,
-                startTime, difficulty);
+        return new ItemSpeedrunRecord(goal.template(), recordId, startTime, difficulty);
     }
 }
@@ -42,15 +42,19 @@ import org.featurehouse.mcmod.speedrun.alphabeta.item.MultiplayerRecords;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.StoredItemRecords;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.difficulty.DefaultItemSpeedrunDifficulty;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.difficulty.ItemSpeedrunDifficulty;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.AlphaBetaMetrics;
 import org.featurehouse.mcmod.speedrun.alphabeta.util.ConcurrentUtils;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.RecordIoExecutor;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Locale;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.IntSupplier;
 import java.util.function.ToIntFunction;
@@ -321,24 +325,29 @@ public class ItemSpeedrunCommands {
                         .then(argument("record", UuidArgumentType.uuid())
                                 .executes(command(Permissions::getResume, env -> s -> {
                                     ServerPlayerEntity p = env.getPlayer(s);
-                                    ConcurrentUtils.run(StoredItemRecords.resumeRecord(p, UuidArgumentType.getUuid(s, "record")), e -> {
-                                        LOGGER.error("Failed to resume", e);
-                                        s.getSource().sendError(Text.translatable("command.speedrun.alphabet.resume.interrupted"));
-                                    });
+                                    ConcurrentUtils.run(StoredItemRecords.resumeRecord(p, UuidArgumentType.getUuid(s, "record")), ioFailure(s, "resume"));
                                     return 1;
                                 }))
                                 .then(argument("player", EntityArgumentType.player())
                                         .executes(command(Permissions::getResumeOthers, env -> s -> {
                                             final ServerPlayerEntity player = EntityArgumentType.getPlayer(s, "player");
                                             ConcurrentUtils.run(StoredItemRecords.resumeRecord(player,
-                                                    UuidArgumentType.getUuid(s, "record")), e -> {
-                                                LOGGER.error("Failed to resume", e);
-                                                s.getSource().sendError(Text.translatable("command.speedrun.alphabet.resume.interrupted"));
-                                            });
+                                                    UuidArgumentType.getUuid(s, "record")), ioFailure(s, "resume"));
                                             return 1;
                                         }))
                                 )
                         )
+                        // #XXXX; greedy, as '#' cannot start an unquoted string
+                        .then(argument("short_name", StringArgumentType.greedyString())
+                                .executes(command(Permissions::getResume, env -> s -> {
+                                    ServerPlayerEntity p = env.getPlayer(s);
+                                    final String shortName = shortName(s);
+                                    if (shortName == null) return 0;
+                                    ConcurrentUtils.run(StoredItemRecords.withShortName(p, shortName,
+                                            id -> StoredItemRecords.resumeRecord(p, id)), ioFailure(s, "resume"));
+                                    return 1;
+                                }))
+                        )
                 )
                 .then(literal("view")
                         .executes(command(Permissions::getView, env -> s -> {
@@ -373,10 +382,7 @@ public class ItemSpeedrunCommands {
                 .then(literal("archive")
                         .executes(command(Permissions::getArchive, env -> s -> {
                             ServerPlayerEntity p = env.getPlayer(s);
-                            ConcurrentUtils.run(StoredItemRecords.archiveRecord(p, p::alphabetSpeedrun$getHistory), e -> {
-                                LOGGER.error("Failed to archive", e);
-                                s.getSource().sendError(Text.translatable("command.speedrun.alphabet.archive.interrupted"));
-                            });
+                            ConcurrentUtils.run(StoredItemRecords.archiveRecord(p, p::alphabetSpeedrun$getHistory), ioFailure(s, "archive"));
                             return 1;
                         }))
                         .then(argument("players", EntityArgumentType.players())
@@ -384,10 +390,7 @@ public class ItemSpeedrunCommands {
                                     Collection<ServerPlayerEntity> players = EntityArgumentType.getPlayers(s, "players");
                                     ConcurrentUtils.run(CompletableFuture.allOf(players.stream().map(p -> StoredItemRecords.archiveRecord(
                                                     p, p::alphabetSpeedrun$getHistory))
-                                            .toArray(CompletableFuture[]::new)), e -> {
-                                        LOGGER.error("Failed to archive", e);
-                                        s.getSource().sendError(Text.translatable("command.speedrun.alphabet.archive.interrupted"));
-                                    });
+                                            .toArray(CompletableFuture[]::new)), ioFailure(s, "archive"));
                                     return 1;
                                 }))
                         )
@@ -406,41 +409,50 @@ public class ItemSpeedrunCommands {
                                             }
 
                                             UUID record = UuidArgumentType.getUuid(s, "record");
-                                            ConcurrentUtils.run(StoredItemRecords.deleteRecord(player, record), e -> {
-                                                LOGGER.error("Failed to delete", e);
-                                                s.getSource().sendError(Text.translatable("command.speedrun.alphabet.delete.interrupted"));
-                                            });
+                                            ConcurrentUtils.run(StoredItemRecords.deleteRecord(player, record), ioFailure(s, "delete"));
+                                            return 1;
+                                        }))
+                                )
+                                .then(argument("short_name", StringArgumentType.greedyString())
+                                        .executes(command(a -> 0, env -> s -> {
+                                            final ServerPlayerEntity player = EntityArgumentType.getPlayer(s, "player");
+                                            final ServerCommandSource source = s.getSource();
+                                            Permissions permissions = AlphabetSpeedrunConfigData.getInstance().getPermissions();
+                                            IntSupplier sup = (player == source.getEntity()) ? permissions::getDelete : permissions::getDeleteOthers;
+                                            if (!source.hasPermissionLevel(sup.getAsInt())) {
+                                                source.sendError(Text.translatable("command.speedrun.alphabet.no_permission"));
+                                                return 0;
+                                            }
+
+                                            final String shortName = shortName(s);
+                                            if (shortName == null) return 0;
+                                            ConcurrentUtils.run(StoredItemRecords.withShortName(player, shortName,
+                                                    id -> StoredItemRecords.deleteRecord(player, id)), ioFailure(s, "delete"));
                                             return 1;
                                         }))
                                 )
                         )
                 )
+                .then(literal("stats")
+                        .executes(command(Permissions::getStats, env -> s -> {
+                            final ServerCommandSource source = s.getSource();
+                            source.sendMessage(Text.translatable("command.speedrun.alphabet.stats.header"));
+                            AlphaBetaMetrics.snapshot().forEach((name, value) ->
+                                    source.sendMessage(Text.translatable("command.speedrun.alphabet.stats.entry", name, value)));
+                            return 1;
+                        }))
+                )
                 .then(literal("list")
                         .executes(command(Permissions::getList, env -> s -> {
                             ServerPlayerEntity p = env.getPlayer(s);
-                            ConcurrentUtils.run(StoredItemRecords.listRecords(p), e -> {
-                                LOGGER.error("Failed to delete", e);
-                                s.getSource().sendError(Text.translatable("command.speedrun.alphabet.list.interrupted"));
-                            });
+                            ConcurrentUtils.run(StoredItemRecords.listRecords(p), ioFailure(s, "list"));
                             return 1;
                         }))
                         .then(argument("player", EntityArgumentType.player())
-                                .executes(command(a -> 0, env -> s -> {
-                                    final ServerPlayerEntity player = EntityArgumentType.getPlayer(s, "player");
-                                    final ServerCommandSource source = s.getSource();
-                                    Permissions permissions = AlphabetSpeedrunConfigData.getInstance().getPermissions();
-                                    IntSupplier sup = (player == source.getEntity() ? permissions::getList : permissions::getListOthers);
-                                    if (!source.hasPermissionLevel(sup.getAsInt())) {
-                                        source.sendError(Text.translatable("command.speedrun.alphabet.no_permission"));
-                                        return 0;
-                                    }
-
-                                    ConcurrentUtils.run(StoredItemRecords.listRecords(player), e -> {
-                                        LOGGER.error("Failed to delete", e);
-                                        s.getSource().sendError(Text.translatable("command.speedrun.alphabet.list.interrupted"));
-                                    });
-                                    return 1;
-                                }))
+                                .executes(command(a -> 0, env -> s -> listRecords(s, 1)))
+                                .then(argument("page", IntegerArgumentType.integer(1))
+                                        .executes(command(a -> 0, env -> s -> listRecords(s, IntegerArgumentType.getInteger(s, "page"))))
+                                )
                         )
                 )
         );
@@ -519,6 +531,44 @@ public class ItemSpeedrunCommands {
         }
     }
 
+    private static int listRecords(CommandContext<ServerCommandSource> s, int page) throws CommandSyntaxException {
+        final ServerPlayerEntity player = EntityArgumentType.getPlayer(s, "player");
+        final ServerCommandSource source = s.getSource();
+        Permissions permissions = AlphabetSpeedrunConfigData.getInstance().getPermissions();
+        IntSupplier sup = (player == source.getEntity() ? permissions::getList : permissions::getListOthers);
+        if (!source.hasPermissionLevel(sup.getAsInt())) {
+            source.sendError(Text.translatable("command.speedrun.alphabet.no_permission"));
+            return 0;
+        }
+
+        ConcurrentUtils.run(StoredItemRecords.listRecords(player, page), ioFailure(s, "list"));
+        return 1;
+    }
+
+    /**
+     * @return the {@code short_name} argument in upper case, or {@code null}
+     * after reporting it if it is not like {@code #1234}
+     */
+    @Nullable
+    private static String shortName(CommandContext<ServerCommandSource> s) {
+        final String shortName = StringArgumentType.getString(s, "short_name").trim().toUpperCase(Locale.ROOT);
+        if (ItemRecordAccess.SHORT_NAME_PATTERN.matcher(shortName).matches())
+            return shortName;
+        s.getSource().sendError(Text.translatable("command.speedrun.alphabet.short_name.invalid", shortName));
+        return null;
+    }
+
+    private static Consumer<Exception> ioFailure(CommandContext<ServerCommandSource> s, String action) {
+        return e -> {
+            if (e.getCause() instanceof RecordIoExecutor.BusyException) {
+                s.getSource().sendError(Text.translatable("command.speedrun.alphabet.io_busy"));
+            } else {
+                LOGGER.error("Failed to " + action, e);
+                s.getSource().sendError(Text.translatable("command.speedrun.alphabet." + action + ".interrupted"));
+            }
+        };
+    }
+
     private static Command<ServerCommandSource> startCmd(Collection<? extends ServerPlayerEntity> players, ItemSpeedrunDifficulty difficulty) {
         return s -> {
             AlphabetSpeedrunConfigData instance = AlphabetSpeedrunConfigData.getInstance();
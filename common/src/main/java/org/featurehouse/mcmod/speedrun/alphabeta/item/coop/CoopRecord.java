@@ -20,17 +20,24 @@ package org.featurehouse.mcmod.speedrun.alphabeta.item.coop;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import net.minecraft.item.ItemStack;
 import net.minecraft.server.PlayerManager;
 import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.JsonHelper;
+import org.featurehouse.mcmod.speedrun.alphabeta.item.GoalTemplate;
+import org.featurehouse.mcmod.speedrun.alphabeta.item.ItemPredicateIndex;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.ItemSpeedrunRecord;
+import org.featurehouse.mcmod.speedrun.alphabeta.item.RecordSnapshot;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.SingleSpeedrunPredicate;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.difficulty.ItemSpeedrunDifficulty;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.qj5.JsonReader;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.qj5.JsonWriter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -38,6 +45,7 @@ public class CoopRecord implements CoopRecordAccess {
     private final ItemSpeedrunRecord wrapped;
     private final Collection<UUID> operators;
     private final Collection<UUID> players;
+    private final RecordSnapshot.TextCache snapshotTextCache = new RecordSnapshot.TextCache();
 
     public CoopRecord(ItemSpeedrunRecord wrapped, Collection<UUID> operators, Collection<UUID> players) {
         this.wrapped = wrapped;
@@ -82,11 +90,21 @@ public class CoopRecord implements CoopRecordAccess {
         return operators;
     }
 
+    @Override
+    public GoalTemplate template() {
+        return wrapped.template();
+    }
+
     @Override
     public List<SingleSpeedrunPredicate> predicates() {
         return wrapped.predicates();
     }
 
+    @Override
+    public ItemPredicateIndex itemIndex() {
+        return wrapped.itemIndex();
+    }
+
     @Override
     public long[] collected() {
         return wrapped.collected();
@@ -132,6 +150,16 @@ public class CoopRecord implements CoopRecordAccess {
         return wrapped.difficulty();
     }
 
+    @Override
+    public long version() {
+        return wrapped.version();
+    }
+
+    @Override
+    public RecordSnapshot.TextCache snapshotTextCache() {
+        return snapshotTextCache;
+    }
+
     @Override
     public List<ItemStack> displayedStacks() {
         return wrapped.displayedStacks();
@@ -191,7 +219,7 @@ public class CoopRecord implements CoopRecordAccess {
         arr = new JsonArray();
         for (UUID player : players)
             arr.add(player.toString());
-        obj.add("player", arr);
+        obj.add("players", arr);
         obj.add("record", wrapped.toJson());
         return obj;
     }
@@ -207,12 +235,57 @@ public class CoopRecord implements CoopRecordAccess {
         JsonHelper.getArray(obj, "operators").forEach(e ->
                 operators.add(UUID.fromString(JsonHelper.asString(e, "uuid"))));
         final Set<UUID> players = new HashSet<>();
-        JsonHelper.getArray(obj, "players").forEach(e ->
+        // Written as "player" by older versions
+        JsonHelper.getArray(obj, JsonHelper.hasArray(obj, "players") ? "players" : "player").forEach(e ->
                 players.add(UUID.fromString(JsonHelper.asString(e, "uuid"))));
         ItemSpeedrunRecord record = ItemSpeedrunRecord.fromJson(obj.get("record"), false);
         return new CoopRecord(record, operators, players);
     }
 
+    /**
+     * Streaming form of {@link #toJson()}.
+     */
+    public void writeToJson(JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("operators").beginArray();
+        for (UUID operator : operators) writer.value(operator.toString());
+        writer.endArray();
+        writer.name("players").beginArray();
+        for (UUID player : players) writer.value(player.toString());
+        writer.endArray();
+        writer.name("record");
+        wrapped.writeToJson(writer);
+        writer.endObject();
+    }
+
+    /**
+     * Streaming form of {@link #fromJson(JsonObject)}.
+     */
+    public static CoopRecord readFromJson(JsonReader reader) throws IOException {
+        final Set<UUID> operators = new HashSet<>();
+        final Set<UUID> players = new HashSet<>();
+        ItemSpeedrunRecord record = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "operators" -> readUuids(reader, operators);
+                // Written as "player" by older versions
+                case "players", "player" -> readUuids(reader, players);
+                case "record" -> record = ItemSpeedrunRecord.readFromJson(reader, false);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (record == null) throw new JsonParseException("Missing record");
+        return new CoopRecord(record, operators, players);
+    }
+
+    private static void readUuids(JsonReader reader, Collection<UUID> dest) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) dest.add(UUID.fromString(reader.nextString()));
+        reader.endArray();
+    }
+
     @Override
     public void onStop(Collection<? extends ServerPlayerEntity> players) {
         CoopRecordAccess.super.onStop(players);
@@ -18,46 +18,103 @@
 
 package org.featurehouse.mcmod.speedrun.alphabeta.item.coop;
 
+import com.google.common.base.Preconditions;
 import com.google.gson.Gson;
-import com.google.gson.JsonObject;
 import com.mojang.datafixers.util.Either;
 import com.mojang.logging.LogUtils;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.PlayerManager;
+import net.minecraft.server.network.ServerPlayerEntity;
+import org.featurehouse.mcmod.speedrun.alphabeta.item.GoalSnapshotStore;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.ItemRecordAccess;
+import org.featurehouse.mcmod.speedrun.alphabeta.item.ProgressJournal;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.StoredItemRecords;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.AlphaBetaMetrics;
 import org.featurehouse.mcmod.speedrun.alphabeta.util.SavableResource;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.ShortNameIndex;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.qj5.JsonReader;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.qj5.JsonWriter;
 import org.slf4j.Logger;
 
 import javax.annotation.CheckForNull;
 import java.io.IOException;
-import java.io.UncheckedIOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.UUID;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 public class CoopRecordManager implements SavableResource {
     private final Path rootDir;
-    private final Map<UUID, CoopRecordAccess> inMemoryRecords = new LinkedHashMap<>();
+    private final PlayerManager playerManager;
+    // Access order, see #evictIfNeeded
+    private final Map<UUID, CoopRecordAccess> inMemoryRecords = new LinkedHashMap<>(16, 0.75F, true);
+    // Every record on disk or in memory
+    private final Set<UUID> knownIds = new HashSet<>();
+    private final ShortNameIndex shortNames = new ShortNameIndex();
+    // State of each record as last written or read, see #isDirty
+    private final Map<UUID, SavedState> savedStates = new HashMap<>();
     private static final Gson GSON = new Gson();
     private static final Logger LOGGER = LogUtils.getLogger();
 
-    public CoopRecordManager(Path rootDir) {
+    static final int MAX_RESIDENT_RECORDS = 256;
+
+    private static final AtomicInteger SAVE_TID = new AtomicInteger();
+    private static final ExecutorService SAVE_POOL = Executors.newFixedThreadPool(
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())), r -> {
+        Thread t = new Thread(r, "ABS-Coop-Save-" + SAVE_TID.getAndIncrement());
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final LongAdder RECORDS_SAVED = AlphaBetaMetrics.counter("coop.records_saved");
+    private static final LongAdder BYTES_SAVED = AlphaBetaMetrics.counter("coop.bytes_saved");
+
+    public CoopRecordManager(Path rootDir, PlayerManager playerManager) {
         this.rootDir = rootDir;
+        this.playerManager = playerManager;
         this.safeLoad();
     }
 
-
+    /**
+     * Reads the record from disk if it is not in memory yet.
+     */
     @CheckForNull
-    public CoopRecordAccess get(UUID uuid) {
-        final CoopRecordAccess acc = inMemoryRecords.get(uuid);
+    public synchronized CoopRecordAccess get(UUID uuid) {
+        CoopRecordAccess acc = inMemoryRecords.get(uuid);
         if (acc != null) return acc;
+        if (knownIds.contains(uuid)) {
+            try {
+                return readOne(getPath(uuid));
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Failed to read coop record {}", uuid, e);
+                return null;
+            }
+        }
         LOGGER.debug("Coop record {} is invalid or absent", uuid);
         org.featurehouse.mcmod.speedrun.alphabeta.util.AlphaBetaDebug.log(2,l->l.warn("IM={}",inMemoryRecords));
         return null;
     }
 
+    /**
+     * Registers a newly started coop record, to be written on the next save.
+     */
+    public synchronized void add(CoopRecordAccess record) {
+        inMemoryRecords.put(record.recordId(), record);
+        index(record.recordId());
+        evictIfNeeded();
+    }
+
     @Deprecated
     public CoopRecordAccess readOne(UUID uuid) throws IOException {
         return readOne(getPath(uuid));
@@ -75,56 +132,179 @@ public class CoopRecordManager implements SavableResource {
     }
 
     private CoopRecordAccess readOne(Path p) throws IOException {
-        JsonObject root;
-        try (var reader = Files.newBufferedReader(p)) {
-            root = GSON.fromJson(reader, JsonObject.class);
+        CoopRecord e;
+        try (var reader = JsonReader.json(p)) {
+            e = CoopRecord.readFromJson(reader);
         }
-        CoopRecord e = CoopRecord.fromJson(root);
         e.getPlayers().clear();
         synchronized (this) {
             inMemoryRecords.put(e.recordId(), e);
+            index(e.recordId());
+            savedStates.put(e.recordId(), SavedState.of(e));
+            // after the saved state, so that recovered progress is saved again
+            final ProgressJournal journal = ProgressJournal.get();
+            if (journal != null) journal.replay(e);
+            evictIfNeeded();
         }
         // TODO: try invite all
         return e;
     }
 
+    private void index(UUID recordId) {
+        if (knownIds.add(recordId))
+            shortNames.add(recordId);
+    }
+
+    /**
+     * Drops least recently used records beyond {@link #MAX_RESIDENT_RECORDS},
+     * except those still run by an online player or not saved yet.
+     */
+    private void evictIfNeeded() {
+        if (inMemoryRecords.size() <= MAX_RESIDENT_RECORDS) return;
+        final Set<UUID> running = new HashSet<>();
+        for (ServerPlayerEntity player : playerManager.getPlayerList()) {
+            final ItemRecordAccess rec = player.alphabetSpeedrun$getItemRecordAccess();
+            if (rec != null && rec.isCoop())
+                running.add(rec.recordId());
+        }
+        final var it = inMemoryRecords.values().iterator();
+        while (inMemoryRecords.size() > MAX_RESIDENT_RECORDS && it.hasNext()) {
+            final CoopRecordAccess rec = it.next();
+            if (running.contains(rec.recordId()) || isDirty(rec)) continue;
+            it.remove();
+            savedStates.remove(rec.recordId());
+        }
+    }
+
+    /**
+     * Indexes record IDs on disk. Records are read on demand by {@link #get(UUID)}.
+     */
     public void load() throws IOException {
         if (!Files.exists(rootDir)) {
             Files.createDirectories(rootDir);
         }
 
+        final Set<UUID> ids = new HashSet<>();
         try (var l = Files.list(rootDir)) {
             l.forEach(p -> {
-                if (!StoredItemRecords.FILENAME_PATTERN.matcher(p.getFileName().toString()).matches()) {
-                    throw new UncheckedIOException(new IOException("Invalid coop record id"));
-                }
-                try {
-                    readOne(p);
-                } catch (IOException e) {
-                    throw new UncheckedIOException(e);
+                final String fn = p.getFileName().toString();
+                if (!StoredItemRecords.FILENAME_PATTERN.matcher(fn).matches()) {
+                    LOGGER.warn("Ignoring {}: not a coop record", p);
+                    return;
                 }
+                ids.add(UUID.fromString(fn.substring(0, fn.length() - ".json".length())));
             });
-        } catch (UncheckedIOException e) {
-            throw e.getCause();
+        }
+        synchronized (this) {
+            ids.forEach(this::index);
         }
     }
 
+    /**
+     * Writes records changed since they were last written or read. Records are
+     * serialized on the calling thread and written in parallel on a pool of
+     * its own, each to a synced temporary file renamed over the old one.
+     * Waits for the writes to finish. Records stay in memory.
+     */
     public void save() throws IOException {
-        for (ItemRecordAccess rec : inMemoryRecords.values()) {
-            JsonObject json = rec.toJson();
-            try (var writer = Files.newBufferedWriter(getPath(rec.recordId()))) {
-                GSON.toJson(json, writer);
+        final List<Pending> pending = new ArrayList<>();
+        synchronized (this) {
+            for (CoopRecordAccess rec : inMemoryRecords.values()) {
+                if (!isDirty(rec)) continue;
+                GoalSnapshotStore.persist(rec.template());
+                pending.add(new Pending(rec.recordId(), SavedState.of(rec), encode(rec)));
             }
         }
+        if (pending.isEmpty()) return;
+        Files.createDirectories(rootDir);
+
+        final Map<UUID, IOException> failures = new ConcurrentHashMap<>();
+        if (pending.size() == 1) {
+            write(pending.get(0), failures);
+        } else {
+            // Not the shared record I/O queue, where the save would wait behind unrelated tasks
+            CompletableFuture.allOf(pending.stream()
+                    .map(p -> CompletableFuture.runAsync(() -> write(p, failures), SAVE_POOL))
+                    .toArray(CompletableFuture[]::new)).join();
+        }
+
+        long bytes = 0;
+        int records = 0;
         synchronized (this) {
-            inMemoryRecords.clear();
+            for (Pending p : pending) {
+                if (failures.containsKey(p.recordId())) continue;
+                savedStates.put(p.recordId(), p.state());
+                bytes += p.bytes().length;
+                records++;
+            }
+        }
+        RECORDS_SAVED.add(records);
+        BYTES_SAVED.add(bytes);
+        LOGGER.info("Saved {} coop records ({} bytes)", records, bytes);
+        if (!failures.isEmpty()) {
+            final IOException e = new IOException("Failed to save " + failures.size() + " coop records");
+            failures.values().forEach(e::addSuppressed);
+            throw e;
         }
     }
 
+    private static byte[] encode(CoopRecordAccess rec) throws IOException {
+        if (!(rec instanceof CoopRecord coop))
+            return GSON.toJson(rec.toJson()).getBytes(StandardCharsets.UTF_8);
+        final StringWriter buffer = new StringWriter();
+        try (JsonWriter writer = JsonWriter.json(buffer)) {
+            writer.setCompact();
+            coop.writeToJson(writer);
+        }
+        return buffer.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void write(Pending p, Map<UUID, IOException> failures) {
+        try {
+            writeAtomically(getPath(p.recordId()), p.bytes());
+        } catch (IOException e) {
+            failures.put(p.recordId(), e);
+        }
+    }
+
+    private static void writeAtomically(Path path, byte[] bytes) throws IOException {
+        final Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                final ByteBuffer buf = ByteBuffer.wrap(bytes);
+                while (buf.hasRemaining())
+                    ch.write(buf);
+                // or the rename may reach the disk before the data
+                ch.force(true);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    private boolean isDirty(CoopRecordAccess rec) {
+        return !SavedState.of(rec).equals(savedStates.get(rec.recordId()));
+    }
+
+    private record SavedState(long version, Set<UUID> players, Set<UUID> operators) {
+        static SavedState of(CoopRecordAccess rec) {
+            return new SavedState(rec.version(), Set.copyOf(rec.getPlayers()), Set.copyOf(rec.getOperators()));
+        }
+    }
+
+    private record Pending(UUID recordId, SavedState state, byte[] bytes) {}
+
     public Path getPath(String shortName) throws IOException, IllegalArgumentException {
-        var c = ItemRecordAccess.pathFromShortName(rootDir, shortName);
-        if (c.size() != 1) throw new IllegalArgumentException("Too many paths matching " + shortName);
-        return c.iterator().next();
+        Preconditions.checkArgument(ItemRecordAccess.SHORT_NAME_PATTERN.matcher(shortName).matches(), "short name should be like #1234");
+        final List<UUID> c;
+        synchronized (this) {
+            c = shortNames.get(Integer.parseInt(shortName.substring(1), 16));
+        }
+        if (c.size() != 1) throw new IllegalArgumentException(c.isEmpty() ? "No path matching " + shortName : "Too many paths matching " + shortName);
+        return getPath(c.get(0));
     }
 
     static final int DUP = 1, ABSENT = 0, INVALID = -1;
@@ -134,16 +314,13 @@ public class CoopRecordManager implements SavableResource {
         if (!ItemRecordAccess.SHORT_NAME_PATTERN.matcher(shortName).matches()) {
             return Either.right(INVALID);
         }
-        int i = Integer.parseInt(shortName, 16);
-        CoopRecordAccess obj = null;
-        for (Map.Entry<UUID, CoopRecordAccess> entry : inMemoryRecords.entrySet()) {
-            if ((int) (entry.getKey().getMostSignificantBits() >>> 48) == i) {
-                if (obj == null)
-                    obj = entry.getValue();
-                else
-                    return Either.right(DUP);
-            }
+        final List<UUID> ids;
+        synchronized (this) {
+            ids = shortNames.get(Integer.parseInt(shortName.substring(1), 16));
         }
+        if (ids.size() > 1)
+            return Either.right(DUP);
+        final CoopRecordAccess obj = ids.isEmpty() ? null : get(ids.get(0));
         if (obj == null)
             return Either.right(ABSENT);
         return Either.left(obj);
@@ -18,6 +18,7 @@
 
 package org.featurehouse.mcmod.speedrun.alphabeta.item.coop;
 
+import org.featurehouse.mcmod.speedrun.alphabeta.item.RecordAudiences;
 import org.featurehouse.mcmod.speedrun.alphabeta.util.MixinSensitive;
 import org.jetbrains.annotations.ApiStatus;
 
@@ -25,4 +26,6 @@ import org.jetbrains.annotations.ApiStatus;
 public interface CoopablePlayerList {
     @MixinSensitive
     CoopRecordManager alphabetSpeedrun$getCoopManager();
+    @MixinSensitive
+    RecordAudiences alphabetSpeedrun$getRecordAudiences();
 }
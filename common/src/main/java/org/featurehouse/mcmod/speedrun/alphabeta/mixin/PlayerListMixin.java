@@ -18,12 +18,16 @@
 
 package org.featurehouse.mcmod.speedrun.alphabeta.mixin;
 
+import com.mojang.authlib.GameProfile;
 import net.minecraft.obfuscate.DontObfuscate;
 import net.minecraft.registry.CombinedDynamicRegistries;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.PlayerManager;
 import net.minecraft.util.WorldSavePath;
 import net.minecraft.world.WorldSaveHandler;
+import org.featurehouse.mcmod.speedrun.alphabeta.item.ItemSpeedrunEvents;
+import org.featurehouse.mcmod.speedrun.alphabeta.item.ProgressJournal;
+import org.featurehouse.mcmod.speedrun.alphabeta.item.RecordAudiences;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.coop.CoopRecordManager;
 import org.featurehouse.mcmod.speedrun.alphabeta.item.coop.CoopablePlayerList;
 import org.spongepowered.asm.mixin.Mixin;
@@ -32,22 +36,50 @@ import org.spongepowered.asm.mixin.injection.Coerce;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
+import java.io.IOException;
+
 @Mixin(PlayerManager.class)
 abstract class PlayerListMixin implements CoopablePlayerList {
     @DontObfuscate private CoopRecordManager alphabetSpeedrun$coopRecordManager;
+    @DontObfuscate private RecordAudiences alphabetSpeedrun$recordAudiences;
 
     @Inject(at = @At("RETURN"), method = "<init>")
     private void postInit(MinecraftServer server, @Coerce Object arg2, WorldSaveHandler saveHandler, int maxPlayers, CallbackInfo ci) {
-        alphabetSpeedrun$coopRecordManager = new CoopRecordManager(server.getSavePath(WorldSavePath.ROOT).resolve("alphabet-speedrun-records/coop/item"));
+        alphabetSpeedrun$coopRecordManager = new CoopRecordManager(server.getSavePath(WorldSavePath.ROOT).resolve("alphabet-speedrun-records/coop/item"),
+                (PlayerManager) (Object) this);
+        alphabetSpeedrun$recordAudiences = new RecordAudiences((PlayerManager) (Object) this);
     }
 
     @Inject(at = @At("RETURN"), method = "saveAllPlayerData")
     private void onSave(CallbackInfo ci) {
-        alphabetSpeedrun$coopRecordManager.safeSave();
+        try {
+            alphabetSpeedrun$coopRecordManager.save();
+        } catch (IOException e) {
+            ItemSpeedrunEvents.LOGGER.error("Failed to save coop records", e);
+            return;
+        }
+        // player data is saved as well
+        final ProgressJournal journal = ProgressJournal.get();
+        if (journal != null) journal.checkpoint();
+    }
+
+    @Inject(at = @At("RETURN"), method = "addToOperators")
+    private void onOp(GameProfile profile, CallbackInfo ci) {
+        alphabetSpeedrun$recordAudiences.setOperator(profile, true);
+    }
+
+    @Inject(at = @At("RETURN"), method = "removeFromOperators")
+    private void onDeop(GameProfile profile, CallbackInfo ci) {
+        alphabetSpeedrun$recordAudiences.setOperator(profile, false);
     }
 
     @Override
     public CoopRecordManager alphabetSpeedrun$getCoopManager() {
         return alphabetSpeedrun$coopRecordManager;
     }
+
+    @Override
+    public RecordAudiences alphabetSpeedrun$getRecordAudiences() {
+        return alphabetSpeedrun$recordAudiences;
+    }
 }
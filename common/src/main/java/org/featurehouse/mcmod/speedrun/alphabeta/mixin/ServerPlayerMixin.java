@@ -18,9 +18,9 @@
 
 package org.featurehouse.mcmod.speedrun.alphabeta.mixin;
 
-import com.google.gson.JsonObject;
 import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtElement;
 import net.minecraft.obfuscate.DontObfuscate;
 import net.minecraft.screen.ScreenHandler;
 import net.minecraft.server.MinecraftServer;
@@ -35,12 +35,27 @@ import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
+import java.io.IOException;
+import java.util.UUID;
+
 @Mixin(ServerPlayerEntity.class)
 public abstract class ServerPlayerMixin extends PlayerEntity implements ItemCollector, InternalItemCollector {
     @DontObfuscate @Nullable ItemRecordAccess alphabetSpeedrun$currentRecord;
     @DontObfuscate
     @Nullable
-    private JsonObject alphabetSpeedrun$itemRecordHistory;
+    private byte[] alphabetSpeedrun$itemRecordHistory;    // gzipped JSON, decoded on demand
+    @DontObfuscate
+    @Nullable
+    private UUID alphabetSpeedrun$itemRecordHistoryId;
+    @DontObfuscate
+    private final InventoryFingerprint alphabetSpeedrun$inventoryFingerprint = new InventoryFingerprint();
+    @DontObfuscate
+    private final InventoryUpdateBuffer alphabetSpeedrun$inventoryUpdateBuffer = new InventoryUpdateBuffer();
+    @DontObfuscate
+    private final EncodedRecordCache alphabetSpeedrun$encodedRecordCache = new EncodedRecordCache();
+    // also set on login and respawn
+    @DontObfuscate
+    private boolean alphabetSpeedrun$stampPurgePending = true;
 
     @SuppressWarnings("all") ServerPlayerMixin() {super(null, null, 0, null);}
 
@@ -53,55 +68,108 @@ public abstract class ServerPlayerMixin extends PlayerEntity implements ItemColl
 
     @Override
     public void alphabetSpeedrun$setItemRecordAccess(@Nullable ItemRecordAccess record) {
+        alphabetSpeedrun$onRecordChanged(record);
         alphabetSpeedrun$currentRecord = record;
+        alphabetSpeedrun$stampPurgePending = true;
+    }
+
+    @SuppressWarnings("all")
+    private void alphabetSpeedrun$onRecordChanged(@Nullable ItemRecordAccess record) {
+        RecordAudiences.fromServer(alphabetSpeedrun$getServer())
+                .onRecordChanged((ServerPlayerEntity) (Object) this, alphabetSpeedrun$currentRecord, record);
     }
 
     @Inject(method = "readCustomDataFromNbt", at = @At("RETURN"))
     private void onReadFromNbt(NbtCompound nbt, CallbackInfo ci) {
         try {
-            this.alphabetSpeedrun$currentRecord = JsonYYDS.getFromNbtByteArray(nbt, "AlphabetSpeedrunItemRecord_s")
-                    .map(obj -> ItemRecordAccess.fromJsonMeta(obj, CoopRecordManager.fromServer(alphabetSpeedrun$getServer())))
-                    .orElse(null);
-        } catch (RuntimeException e) {
+            final CoopRecordManager coopMgr = CoopRecordManager.fromServer(alphabetSpeedrun$getServer());
+            if (nbt.contains("AlphabetSpeedrunItemRecord_b", NbtElement.BYTE_ARRAY_TYPE)) {
+                this.alphabetSpeedrun$currentRecord = RecordCodec.decode(nbt.getByteArray("AlphabetSpeedrunItemRecord_b"), coopMgr);
+            } else {
+                // Legacy
+                this.alphabetSpeedrun$currentRecord = JsonYYDS.getFromNbtByteArray(nbt, "AlphabetSpeedrunItemRecord_s")
+                        .map(obj -> ItemRecordAccess.fromJsonMeta(obj, coopMgr))
+                        .orElse(null);
+            }
+        } catch (RuntimeException | IOException e) {
             ItemSpeedrunEvents.LOGGER.error("Failed to read player NBT from " + this.uuidString, e);
         }
-        this.alphabetSpeedrun$itemRecordHistory = JsonYYDS.getFromNbtByteArray(nbt, "AlphabetSpeedrunItemRecordHistory_s").orElse(null);
+        final ProgressJournal journal = ProgressJournal.get();
+        // coop records are replayed by CoopRecordManager
+        if (journal != null && alphabetSpeedrun$currentRecord != null && !alphabetSpeedrun$currentRecord.isCoop())
+            journal.replay(alphabetSpeedrun$currentRecord);
+        if (alphabetSpeedrun$currentRecord != null)
+            ItemSpeedrunEvents.finishRecoveredRecord((ServerPlayerEntity) (Object) this, alphabetSpeedrun$currentRecord);
+        if (nbt.contains("AlphabetSpeedrunItemRecordHistory_s", NbtElement.BYTE_ARRAY_TYPE)) {
+            final byte[] history = nbt.getByteArray("AlphabetSpeedrunItemRecordHistory_s");
+            UUID historyId = null;
+            if (nbt.containsUuid("AlphabetSpeedrunItemRecordHistoryId")) {
+                historyId = nbt.getUuid("AlphabetSpeedrunItemRecordHistoryId");
+            } else {
+                // Legacy: decoded once, and the id is saved from now on
+                try {
+                    historyId = ItemSpeedrunRecord.fromJson(JsonYYDS.fromByteArray(history), false).recordId();
+                } catch (RuntimeException e) {
+                    ItemSpeedrunEvents.LOGGER.error("Failed to read record history of " + this.uuidString, e);
+                }
+            }
+            this.alphabetSpeedrun$setHistory(history, historyId);
+        } else {
+            this.alphabetSpeedrun$setHistory(null, null);
+        }
     }
 
     @Inject(method = "writeCustomDataToNbt", at = @At("RETURN"))
     private void onWriteToNbt(NbtCompound nbt, CallbackInfo ci) {
         if (alphabetSpeedrun$currentRecord != null) {
-            nbt.put("AlphabetSpeedrunItemRecord_s", JsonYYDS.toByteArray(alphabetSpeedrun$currentRecord.toJsonMeta()));
+            GoalSnapshotStore.persist(alphabetSpeedrun$currentRecord.template());
+            nbt.putByteArray("AlphabetSpeedrunItemRecord_b", alphabetSpeedrun$encodedRecordCache.encodeRecord(alphabetSpeedrun$currentRecord));
+        }
+        if (this.alphabetSpeedrun$itemRecordHistory != null) {
+            nbt.putByteArray("AlphabetSpeedrunItemRecordHistory_s", alphabetSpeedrun$itemRecordHistory);
+            if (this.alphabetSpeedrun$itemRecordHistoryId != null)
+                nbt.putUuid("AlphabetSpeedrunItemRecordHistoryId", alphabetSpeedrun$itemRecordHistoryId);
         }
-        if (this.alphabetSpeedrun$itemRecordHistory != null)
-            nbt.put("AlphabetSpeedrunItemRecordHistory_s", JsonYYDS.toByteArray(alphabetSpeedrun$itemRecordHistory));
+    }
+
+    private void alphabetSpeedrun$setHistory(byte[] history, @Nullable UUID recordId) {
+        alphabetSpeedrun$itemRecordHistory = history;
+        alphabetSpeedrun$itemRecordHistoryId = recordId;
     }
 
     @Override
     public boolean alphabetSpeedrun$moveRecordToHistory() {
         if (alphabetSpeedrun$currentRecord == null || alphabetSpeedrun$currentRecord.isCoop()) return false;
-        alphabetSpeedrun$itemRecordHistory = alphabetSpeedrun$currentRecord.toJson();
+        alphabetSpeedrun$setHistory(JsonYYDS.toByteArray(alphabetSpeedrun$currentRecord.toJson()).getByteArray(),
+                alphabetSpeedrun$currentRecord.recordId());
+        alphabetSpeedrun$onRecordChanged(null);
         alphabetSpeedrun$currentRecord = null;
+        alphabetSpeedrun$stampPurgePending = true;
         return true;
     }
 
     @Override
     public boolean alphabetSpeedrun$resumeLocalHistory() {
         if (alphabetSpeedrun$itemRecordHistory == null) return false;
-        alphabetSpeedrun$currentRecord = ItemSpeedrunRecord.fromJson(alphabetSpeedrun$itemRecordHistory, false);
-        alphabetSpeedrun$itemRecordHistory = null;
+        final ItemSpeedrunRecord record = alphabetSpeedrun$getHistory();
+        alphabetSpeedrun$onRecordChanged(record);
+        alphabetSpeedrun$currentRecord = record;
+        alphabetSpeedrun$setHistory(null, null);
+        alphabetSpeedrun$stampPurgePending = true;
         return true;
     }
 
     @Override
     public void alphabetSpeedrun$clearItemHistory() {
-        alphabetSpeedrun$itemRecordHistory = null;
+        alphabetSpeedrun$setHistory(null, null);
     }
 
+    // Decoded on each call, so that changes to the returned record don't leak into the stored bytes
     @Override
     public ItemSpeedrunRecord alphabetSpeedrun$getHistory() {
-        return alphabetSpeedrun$itemRecordHistory == null ? null :
-                ItemSpeedrunRecord.fromJson(alphabetSpeedrun$itemRecordHistory, false);
+        final byte[] bytes = alphabetSpeedrun$itemRecordHistory;
+        if (bytes == null) return null;
+        return ItemSpeedrunRecord.fromJson(JsonYYDS.fromByteArray(bytes), false);
     }
 
     @Inject(at = @At("RETURN"), method = "onScreenHandlerOpened")
@@ -113,11 +181,39 @@ public abstract class ServerPlayerMixin extends PlayerEntity implements ItemColl
     @Inject(method = "copyFrom", at = @At("RETURN"))
     private void copyMyself(ServerPlayerEntity oldPlayer, boolean alive, CallbackInfo ci) {
         this.alphabetSpeedrun$currentRecord = oldPlayer.alphabetSpeedrun$getItemRecordAccess();
-        this.alphabetSpeedrun$itemRecordHistory = oldPlayer.alphabetSpeedrun$internal$getHistoryRaw();
+        this.alphabetSpeedrun$setHistory(oldPlayer.alphabetSpeedrun$internal$getHistoryRaw(),
+                oldPlayer.alphabetSpeedrun$getHistoryRecordId());
     }
 
     @Override
-    public JsonObject alphabetSpeedrun$internal$getHistoryRaw() {
+    public InventoryFingerprint alphabetSpeedrun$getInventoryFingerprint() {
+        return alphabetSpeedrun$inventoryFingerprint;
+    }
+
+    @Override
+    public InventoryUpdateBuffer alphabetSpeedrun$getInventoryUpdateBuffer() {
+        return alphabetSpeedrun$inventoryUpdateBuffer;
+    }
+
+    @Override
+    public void alphabetSpeedrun$markStampPurge() {
+        alphabetSpeedrun$stampPurgePending = true;
+    }
+
+    @Override
+    public boolean alphabetSpeedrun$pollStampPurge() {
+        final boolean pending = alphabetSpeedrun$stampPurgePending;
+        alphabetSpeedrun$stampPurgePending = false;
+        return pending;
+    }
+
+    @Override
+    public byte[] alphabetSpeedrun$internal$getHistoryRaw() {
         return this.alphabetSpeedrun$itemRecordHistory;
     }
+
+    @Override
+    public UUID alphabetSpeedrun$getHistoryRecordId() {
+        return this.alphabetSpeedrun$itemRecordHistoryId;
+    }
 }
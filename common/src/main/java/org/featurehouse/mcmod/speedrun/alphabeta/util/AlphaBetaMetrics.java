@@ -0,0 +1,57 @@
+/*
+ * This file is part of αβspeedrun.
+ * Copyright (C) 2022 Pigeonia Featurehouse
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.featurehouse.mcmod.speedrun.alphabeta.util;
+
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide counters, shown by {@code /itemspeedrun stats}.
+ * Values are reset on restart only.
+ */
+@ApiStatus.Internal
+public final class AlphaBetaMetrics {
+    private AlphaBetaMetrics() {}
+
+    private static final Map<String, LongSupplier> METRICS = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    public static LongAdder counter(String name) {
+        final LongAdder adder = new LongAdder();
+        register(name, adder::sum);
+        return adder;
+    }
+
+    public static void register(String name, LongSupplier gauge) {
+        if (METRICS.putIfAbsent(name, gauge) != null)
+            throw new IllegalArgumentException("Duplicate metric: " + name);
+    }
+
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> m = new LinkedHashMap<>();
+        synchronized (METRICS) {
+            METRICS.forEach((name, gauge) -> m.put(name, gauge.getAsLong()));
+        }
+        return m;
+    }
+}
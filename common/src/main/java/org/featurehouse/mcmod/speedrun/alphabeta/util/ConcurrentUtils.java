@@ -19,20 +19,19 @@
 package org.featurehouse.mcmod.speedrun.alphabeta.util;
 
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 public class ConcurrentUtils {
-    private static final AtomicInteger TID = new AtomicInteger();
-
+    /**
+     * Reports a failure of {@code completableFuture} on the server thread.
+     * @param onFailure receives an {@link ExecutionException} wrapping the cause
+     */
     public static void run(CompletableFuture<Void> completableFuture, Consumer<Exception> onFailure) {
-        new Thread(() -> {
-            try {
-                completableFuture.get();
-            } catch (InterruptedException | ExecutionException e) {
-                onFailure.accept(e);
-            }
-        }, "ABS-Concurrent-" + TID.getAndIncrement()).start();
+        completableFuture.whenCompleteAsync(($, e) -> {
+            if (e == null) return;
+            onFailure.accept(new ExecutionException(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e));
+        }, RecordIoExecutor.serverThread());
     }
 }
@@ -18,13 +18,15 @@
 
 package org.featurehouse.mcmod.speedrun.alphabeta.util;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
+import com.google.gson.*;
 import net.minecraft.nbt.NbtByteArray;
 import net.minecraft.nbt.NbtCompound;
 import net.minecraft.nbt.NbtElement;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.qj5.JsonReader;
+import org.featurehouse.mcmod.speedrun.alphabeta.util.qj5.JsonWriter;
 
 import java.io.*;
+import java.util.Map;
 import java.util.Optional;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -51,4 +53,63 @@ public final class JsonYYDS {
         } catch (IOException e) { throw new IncompatibleClassChangeError(); }
         return new NbtByteArray(buffer.toByteArray());
     }
+
+    /**
+     * Reads the next value as a tree. For parts of a stream that only have a
+     * tree-based parser, e.g. item predicates.
+     */
+    public static JsonElement readTree(JsonReader reader) throws IOException {
+        return switch (reader.peek()) {
+            case BEGIN_OBJECT -> {
+                JsonObject obj = new JsonObject();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    obj.add(reader.nextName(), readTree(reader));
+                }
+                reader.endObject();
+                yield obj;
+            }
+            case BEGIN_ARRAY -> {
+                JsonArray arr = new JsonArray();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    arr.add(readTree(reader));
+                }
+                reader.endArray();
+                yield arr;
+            }
+            case STRING -> new JsonPrimitive(reader.nextString());
+            case NUMBER -> new JsonPrimitive(reader.nextNumber());
+            case BOOLEAN -> new JsonPrimitive(reader.nextBoolean());
+            case NULL -> {
+                reader.nextNull();
+                yield JsonNull.INSTANCE;
+            }
+            default -> throw new IllegalStateException("Unexpected " + reader.peek() + reader.locationString());
+        };
+    }
+
+    public static void writeTree(JsonWriter writer, JsonElement element) throws IOException {
+        if (element.isJsonObject()) {
+            writer.beginObject();
+            for (Map.Entry<String, JsonElement> e : element.getAsJsonObject().entrySet()) {
+                writer.name(e.getKey());
+                writeTree(writer, e.getValue());
+            }
+            writer.endObject();
+        } else if (element.isJsonArray()) {
+            writer.beginArray();
+            for (JsonElement e : element.getAsJsonArray()) {
+                writeTree(writer, e);
+            }
+            writer.endArray();
+        } else if (element.isJsonNull()) {
+            writer.nullValue();
+        } else {
+            final JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean()) writer.value(primitive.getAsBoolean());
+            else if (primitive.isNumber()) writer.value(primitive.getAsNumber());
+            else writer.value(primitive.getAsString());
+        }
+    }
 }
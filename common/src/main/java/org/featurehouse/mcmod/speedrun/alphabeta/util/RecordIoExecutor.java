@@ -0,0 +1,135 @@
+/*
+ * This file is part of αβspeedrun.
+ * Copyright (C) 2022 Pigeonia Featurehouse
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.featurehouse.mcmod.speedrun.alphabeta.util;
+
+import org.jetbrains.annotations.ApiStatus;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs blocking record file I/O off the server thread.
+ * <p>
+ * Work is queued on a bounded, single-threaded executor. When the queue is
+ * full, the returned future fails with {@link BusyException} instead of
+ * piling up threads. Anything touching players or the world must be chained
+ * with {@link #serverThread()}, whose tasks are run in one batch per tick.
+ */
+@ApiStatus.Internal
+public final class RecordIoExecutor {
+    private RecordIoExecutor() {}
+
+    static final int QUEUE_LIMIT = 64;
+
+    private static final AtomicInteger TID = new AtomicInteger();
+    private static final ThreadPoolExecutor IO = new ThreadPoolExecutor(1, 1,
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(QUEUE_LIMIT), r -> {
+        Thread t = new Thread(r, "ABS-Record-IO-" + TID.getAndIncrement());
+        t.setDaemon(true);
+        return t;
+    }, new ThreadPoolExecutor.AbortPolicy());
+    private static final Queue<ServerTask> SERVER_THREAD_TASKS = new ConcurrentLinkedQueue<>();
+    // bumped when a server stops, so that its late completions are discarded
+    private static volatile int serverEpoch;
+
+    private record ServerTask(int epoch, Runnable task) {}
+
+    private static final LongAdder TASKS = AlphaBetaMetrics.counter("io.tasks");
+    private static final LongAdder REJECTED = AlphaBetaMetrics.counter("io.rejected");
+    private static final LongAdder LATENCY_NANOS = AlphaBetaMetrics.counter("io.latency_nanos");
+
+    static {
+        AlphaBetaMetrics.register("io.queue_depth", () -> IO.getQueue().size());
+        AlphaBetaMetrics.register("io.pending_completions", SERVER_THREAD_TASKS::size);
+    }
+
+    @FunctionalInterface
+    public interface IoTask<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * @return a future completed on the I/O thread; chain player-facing work
+     * with {@code *Async(..., serverThread())}
+     */
+    public static <T> CompletableFuture<T> supply(IoTask<T> task) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final long queuedAt = System.nanoTime();
+        try {
+            IO.execute(() -> {
+                try {
+                    future.complete(task.run());
+                } catch (IOException e) {
+                    future.completeExceptionally(new UncheckedIOException(e));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    TASKS.increment();
+                    // includes time spent in the queue
+                    LATENCY_NANOS.add(System.nanoTime() - queuedAt);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            REJECTED.increment();
+            future.completeExceptionally(new BusyException());
+        }
+        return future;
+    }
+
+    /**
+     * @return an executor bound to the running server; tasks submitted after
+     * that server has stopped are discarded
+     */
+    public static Executor serverThread() {
+        final int epoch = serverEpoch;
+        return task -> SERVER_THREAD_TASKS.add(new ServerTask(epoch, task));
+    }
+
+    /**
+     * Runs completions queued until now. Tasks queued while draining are left
+     * for the next tick.
+     */
+    public static void drainServerThreadTasks() {
+        for (int n = SERVER_THREAD_TASKS.size(); n > 0; n--) {
+            final ServerTask task = SERVER_THREAD_TASKS.poll();
+            if (task == null) break;
+            if (task.epoch() == serverEpoch)
+                task.task().run();
+        }
+    }
+
+    /**
+     * Discards completions of the stopped server, including those queued by
+     * I/O tasks still running.
+     */
+    public static void discardServerThreadTasks() {
+        serverEpoch++;
+        SERVER_THREAD_TASKS.clear();
+    }
+
+    public static final class BusyException extends RuntimeException {
+        BusyException() {
+            super("Record I/O queue is full (" + QUEUE_LIMIT + " pending tasks)");
+        }
+    }
+}
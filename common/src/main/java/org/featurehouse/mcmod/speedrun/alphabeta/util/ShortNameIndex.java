@@ -0,0 +1,116 @@
+/*
+ * This file is part of αβspeedrun.
+ * Copyright (C) 2022 Pigeonia Featurehouse
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.featurehouse.mcmod.speedrun.alphabeta.util;
+
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Multimap from the short name of a record, i.e. the top 16 bits of its
+ * UUID shown as {@code #1234}, to record UUIDs.
+ * <p>
+ * Open addressing over primitive keys. A key whose records are all removed
+ * keeps its slot until the next rehash. Not thread-safe.
+ */
+@ApiStatus.Internal
+public final class ShortNameIndex {
+    private static final UUID[] EMPTY = new UUID[0];
+
+    private int[] keys = new int[16];
+    private UUID[][] values = new UUID[16][];
+    private int slotsUsed;
+
+    public static int shortName(UUID recordId) {
+        return (int) (recordId.getMostSignificantBits() >>> 48);
+    }
+
+    public void add(UUID recordId) {
+        final int slot = slot(shortName(recordId), true);
+        final UUID[] ids = values[slot];
+        for (UUID id : ids) {
+            if (id.equals(recordId)) return;
+        }
+        final UUID[] grown = Arrays.copyOf(ids, ids.length + 1);
+        grown[ids.length] = recordId;
+        values[slot] = grown;
+    }
+
+    public void remove(UUID recordId) {
+        final int slot = slot(shortName(recordId), false);
+        if (slot < 0) return;
+        final UUID[] ids = values[slot];
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i].equals(recordId)) {
+                final UUID[] shrunk = ids.length == 1 ? EMPTY : new UUID[ids.length - 1];
+                System.arraycopy(ids, 0, shrunk, 0, i);
+                System.arraycopy(ids, i + 1, shrunk, i, ids.length - i - 1);
+                values[slot] = shrunk;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param shortName see {@link #shortName(UUID)}
+     */
+    public List<UUID> get(int shortName) {
+        final int slot = slot(shortName, false);
+        return slot < 0 ? List.of() : List.of(values[slot]);
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        slotsUsed = 0;
+    }
+
+    private int slot(int key, boolean create) {
+        final int mask = keys.length - 1;
+        int i = (key * 0x9E3779B9) >>> 16 & mask;
+        while (values[i] != null) {
+            if (keys[i] == key) return i;
+            i = (i + 1) & mask;
+        }
+        if (!create) return -1;
+        if ((slotsUsed + 1) * 2 > keys.length) {
+            rehash();
+            return slot(key, true);
+        }
+        keys[i] = key;
+        values[i] = EMPTY;
+        slotsUsed++;
+        return i;
+    }
+
+    private void rehash() {
+        final int[] oldKeys = keys;
+        final UUID[][] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new UUID[oldKeys.length * 2][];
+        slotsUsed = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            // Keys left without records are dropped here
+            if (oldValues[i] != null && oldValues[i].length > 0) {
+                values[slot(oldKeys[i], true)] = oldValues[i];
+            }
+        }
+    }
+}